@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Hands printed values to JMH instead of writing them anywhere, so no I/O is measured. */
+final class BlackholeSink implements OutputSink {
+  private final Blackhole blackhole;
+
+  BlackholeSink(Blackhole blackhole) {
+    this.blackhole = blackhole;
+  }
+
+  @Override
+  public void println(String text) {
+    blackhole.consume(text);
+  }
+
+  @Override
+  public void println(double number) {
+    blackhole.consume(number);
+  }
+
+  @Override
+  public void flush() {}
+}
@@ -0,0 +1,41 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Source text to finished run, every stage Lox goes through for a file. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+  @Param({"test", "expressions", "loops"})
+  public String workload;
+
+  private String source;
+  private OutputSink out;
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    source = Workloads.source(workload);
+    out = new BlackholeSink(blackhole);
+  }
+
+  @Benchmark
+  public void run() {
+    new Interpreter(out).interpret(Workloads.prepare(source));
+  }
+}
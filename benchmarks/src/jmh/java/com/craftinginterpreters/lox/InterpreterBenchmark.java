@@ -0,0 +1,46 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  @Param({"test", "expressions", "loops"})
+  public String workload;
+
+  @Param({"false", "true"})
+  public boolean specialize;
+
+  private List<Stmt> statements;
+  private OutputSink out;
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    // resolved once, the annotations stay valid for every run
+    statements = Workloads.prepare(Workloads.source(workload));
+    out = new BlackholeSink(blackhole);
+  }
+
+  @Benchmark
+  public void interpret() {
+    Interpreter interpreter = specialize ? new SpecializingInterpreter(out) : new Interpreter(out);
+    interpreter.interpret(statements);
+  }
+}
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VMBenchmark {
+  @Param({"test", "expressions", "loops"})
+  public String workload;
+
+  private Chunk chunk;
+  private OutputSink out;
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    // compiled once, what is measured is the VM, the same work InterpreterBenchmark measures
+    chunk = new Compiler().compile(Workloads.prepare(Workloads.source(workload)));
+    out = new BlackholeSink(blackhole);
+  }
+
+  @Benchmark
+  public void run() {
+    // a fresh interpreter only for the globals with the natives in them
+    new VM(new Interpreter(out).globals, out).interpret(chunk);
+  }
+}
@@ -0,0 +1,110 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sources the benchmarks run on: the sample script, a file of large arithmetic expressions and a
+ * loop heavy one. The synthetic ones come from a fixed seed, so every run measures the same code.
+ */
+final class Workloads {
+  private Workloads() {}
+
+  static String source(String workload) {
+    switch (workload) {
+      case "test":
+        return resource("/test.lox");
+      case "expressions":
+        return expressions(2000, 6);
+      case "loops":
+        return loops(300);
+      default:
+        throw new IllegalArgumentException("Unknown workload " + workload);
+    }
+  }
+
+  /** Runs every pass Lox runs between the parser and the interpreter. */
+  static List<Stmt> prepare(String source) {
+    List<Token> tokens = new Scanner(source).scanTokens();
+    List<Stmt> statements = new Parser(tokens, false, false).parse();
+    statements = new Optimizer().optimize(statements);
+    statements = new LoopOptimizer().optimize(statements);
+    return new Resolver().resolve(statements);
+  }
+
+  private static String resource(String name) {
+    try (InputStream in = Workloads.class.getResourceAsStream(name)) {
+      if (in == null) throw new IllegalStateException("Missing workload " + name);
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String expressions(int count, int depth) {
+    Random random = new Random(42);
+    StringBuilder source = new StringBuilder("var a = 3;\nvar b = 7.5;\nvar c = -2;\n");
+    for (int i = 0; i < count; i++) {
+      source.append("print ");
+      expression(source, random, depth);
+      source.append(";\n");
+    }
+    return source.toString();
+  }
+
+  // no division by a variable, a zero there would end the run with a runtime error
+  private static void expression(StringBuilder source, Random random, int depth) {
+    if (depth == 0 || random.nextInt(4) == 0) {
+      int pick = random.nextInt(5);
+      if (pick < 3) {
+        source.append("abc".charAt(pick));
+      } else {
+        source.append(1 + random.nextInt(99));
+      }
+      return;
+    }
+    switch (random.nextInt(5)) {
+      case 0:
+        source.append('(');
+        expression(source, random, depth - 1);
+        source.append(')');
+        break;
+      case 1:
+        source.append('-');
+        expression(source, random, depth - 1);
+        break;
+      case 2:
+        expression(source, random, depth - 1);
+        source.append(" / ").append(1 + random.nextInt(9));
+        break;
+      default:
+        expression(source, random, depth - 1);
+        source.append(" +-*".charAt(1 + random.nextInt(3))).append(' ');
+        expression(source, random, depth - 1);
+    }
+  }
+
+  private static String loops(int size) {
+    return "var total = 0;\n"
+        + "for (var i = 0; i < " + size + "; i = i + 1) {\n"
+        + "  for (var j = 0; j < " + size + "; j = j + 1) {\n"
+        + "    if (j < i and (i + j) / 2 > 10) total = total + i * j; else total = total - 1;\n"
+        + "  }\n"
+        + "}\n"
+        + "print total;\n"
+        + "var a = 0;\n"
+        + "var b = 1;\n"
+        + "var n = 0;\n"
+        + "while (n < " + size * size + ") {\n"
+        + "  var t = a + b;\n"
+        + "  a = b;\n"
+        + "  b = t;\n"
+        + "  n = n + 1;\n"
+        + "}\n"
+        + "print a;\n";
+  }
+}
@@ -0,0 +1,493 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * On disk cache of parsed programs, one {@code .loxc} file per source, named after the SHA-256 of
+ * the source text. A file holds a magic number, the format version, the CRC32 and length of the
+ * payload, and the payload. The payload starts with a table of every distinct lexeme and string,
+ * followed by the statements as a pre-order walk of tagged nodes. Counts, lines, columns and table
+ * indices are varints, and tokens whose lexeme is fixed by their type store only the type, line
+ * and column. Anything that does not check out, be it another version, a bad checksum or a
+ * truncated tree, is a miss and the caller parses the source again.
+ */
+class AstCache implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private static final int MAGIC = 0x4c4f5843; // "LOXC"
+  static final int VERSION = 4;
+
+  private static final byte ASSIGN = 0;
+  private static final byte BINARY = 1;
+  private static final byte CALL = 2;
+  private static final byte GROUPING = 3;
+  private static final byte LITERAL = 4;
+  private static final byte UNARY = 5;
+  private static final byte LOGICAL = 6;
+  private static final byte VARIABLE = 7;
+  private static final byte BLOCK = 8;
+  private static final byte EXPRESSION = 9;
+  private static final byte PRINT = 10;
+  private static final byte VAR = 11;
+  private static final byte IF = 12;
+  private static final byte WHILE = 13;
+  private static final byte LAZY = 14;
+  private static final byte NULL = 15;
+  private static final byte IMPORT = 16;
+
+  private static final byte NIL_VALUE = 0;
+  private static final byte TRUE_VALUE = 1;
+  private static final byte FALSE_VALUE = 2;
+  private static final byte NUMBER_VALUE = 3;
+  private static final byte STRING_VALUE = 4;
+
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private final Path directory;
+  // while storing
+  private ByteArrayOutputStream out;
+  private Map<String, Integer> indices;
+  private List<String> table;
+  // while loading
+  private ByteBuffer in;
+  private String[] strings;
+
+  AstCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /** Cache key of a source. Lazily parsed trees differ from eager ones and get their own key. */
+  static String key(byte[] source, boolean lazy) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest(source)) key.append(String.format("%02x", b));
+      return lazy ? key + "-lazy" : key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+  }
+
+  /** The cached statements, or null when there is no usable entry. */
+  List<Stmt> load(String key) {
+    Path file = directory.resolve(key + ".loxc");
+    if (!Files.isRegularFile(file)) return null;
+    try (DataInputStream header = new DataInputStream(Files.newInputStream(file))) {
+      if (header.readInt() != MAGIC || header.readInt() != VERSION) return null;
+      long checksum = header.readLong();
+      int length = header.readInt();
+      if (length < 0 || length > Files.size(file)) return null;
+      byte[] payload = new byte[length];
+      header.readFully(payload);
+      if (header.read() != -1 || crc(payload) != checksum) return null;
+      in = ByteBuffer.wrap(payload);
+      readTable();
+      List<Stmt> statements = readStatements();
+      return in.hasRemaining() ? null : statements;
+    } catch (IOException | RuntimeException e) {
+      // truncated, or a tree that does not decode
+      return null;
+    } finally {
+      in = null;
+      strings = null;
+    }
+  }
+
+  /** Writes the entry through a temporary file, so readers never see half of it. */
+  void store(String key, List<Stmt> statements) throws IOException {
+    out = new ByteArrayOutputStream();
+    indices = new HashMap<>();
+    table = new ArrayList<>();
+    writeStatements(statements);
+    ByteArrayOutputStream tree = out;
+    out = new ByteArrayOutputStream();
+    writeTable();
+    tree.writeTo(out);
+    byte[] payload = out.toByteArray();
+    out = null;
+    indices = null;
+    table = null;
+
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, key, ".tmp");
+    try (DataOutputStream file = new DataOutputStream(Files.newOutputStream(temporary))) {
+      file.writeInt(MAGIC);
+      file.writeInt(VERSION);
+      file.writeLong(crc(payload));
+      file.writeInt(payload.length);
+      file.write(payload);
+    }
+    Files.move(
+        temporary,
+        directory.resolve(key + ".loxc"),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static long crc(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+
+  // writing
+
+  private void writeTable() {
+    writeVarint(table.size());
+    for (String string : table) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      writeVarint(bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+
+  private void writeStatements(List<Stmt> statements) {
+    writeVarint(statements.size());
+    for (Stmt statement : statements) write(statement);
+  }
+
+  private void write(Stmt stmt) {
+    if (stmt == null) {
+      out.write(NULL);
+    } else {
+      stmt.accept(this);
+    }
+  }
+
+  // a statement's line follows its tag
+  private void tag(byte tag, Stmt stmt) {
+    out.write(tag);
+    writeVarint(stmt.line);
+  }
+
+  private void write(Expr expr) {
+    if (expr == null) {
+      out.write(NULL);
+    } else {
+      expr.accept(this);
+    }
+  }
+
+  // a number or string token's literal follows from its lexeme, as it did in the scanner
+  private void write(Token token) {
+    out.write(token.type.ordinal());
+    writeVarint(token.line);
+    writeVarint(token.column);
+    if (TokenBuffer.spelling(token.type) == null) writeString(token.lexeme);
+  }
+
+  private void writeLiteral(Object value) {
+    if (value == null) {
+      out.write(NIL_VALUE);
+    } else if (value instanceof Boolean) {
+      out.write((Boolean) value ? TRUE_VALUE : FALSE_VALUE);
+    } else if (value instanceof Double) {
+      out.write(NUMBER_VALUE);
+      long bits = Double.doubleToRawLongBits((Double) value);
+      for (int shift = 56; shift >= 0; shift -= 8) out.write((int) (bits >>> shift));
+    } else {
+      out.write(STRING_VALUE);
+      writeString((String) value);
+    }
+  }
+
+  private void writeString(String value) {
+    Integer index = indices.get(value);
+    if (index == null) {
+      index = table.size();
+      indices.put(value, index);
+      table.add(value);
+    }
+    writeVarint(index);
+  }
+
+  private void writeVarint(int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    out.write(ASSIGN);
+    write(expr.name);
+    write(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    out.write(BINARY);
+    write(expr.left);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    out.write(CALL);
+    write(expr.callee);
+    write(expr.paren);
+    writeVarint(expr.arguments.size());
+    for (Expr argument : expr.arguments) write(argument);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    out.write(GROUPING);
+    write(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    out.write(LITERAL);
+    writeLiteral(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    out.write(UNARY);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    out.write(LOGICAL);
+    write(expr.left);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    out.write(VARIABLE);
+    write(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    tag(BLOCK, stmt);
+    writeStatements(stmt.statements);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    tag(EXPRESSION, stmt);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    tag(PRINT, stmt);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    tag(VAR, stmt);
+    write(stmt.name);
+    write(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    tag(IF, stmt);
+    write(stmt.condition);
+    write(stmt.thenBranch);
+    write(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    tag(WHILE, stmt);
+    write(stmt.condition);
+    write(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    tag(LAZY, stmt);
+    write(stmt.brace);
+    writeVarint(stmt.tokens.size());
+    for (Token token : stmt.tokens) write(token);
+    return null;
+  }
+
+  // the module's path is worked out again when the program is loaded
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    tag(IMPORT, stmt);
+    write(stmt.keyword);
+    write(stmt.path);
+    return null;
+  }
+
+  // reading, a malformed payload fails with an IOException or a RuntimeException
+
+  private void readTable() {
+    strings = new String[count()];
+    byte[] bytes = in.array();
+    for (int i = 0; i < strings.length; i++) {
+      int length = count();
+      if (length > in.remaining()) throw new BufferUnderflowException();
+      strings[i] = new String(bytes, in.position(), length, StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+    }
+  }
+
+  private List<Stmt> readStatements() throws IOException {
+    int count = count();
+    List<Stmt> statements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) statements.add(readStmt());
+    return statements;
+  }
+
+  private Stmt readStmt() throws IOException {
+    byte tag = in.get();
+    if (tag == NULL) return null;
+    int line = readVarint();
+    return Stmt.at(line, readStmt(tag));
+  }
+
+  private Stmt readStmt(byte tag) throws IOException {
+    switch (tag) {
+      case BLOCK:
+        return new Stmt.Block(readStatements());
+      case EXPRESSION:
+        return new Stmt.Expression(readExpr());
+      case PRINT:
+        return new Stmt.Print(readExpr());
+      case VAR:
+        return new Stmt.Var(readToken(), readExpr());
+      case IF:
+        return new Stmt.If(readExpr(), readStmt(), readStmt());
+      case WHILE:
+        return new Stmt.While(readExpr(), readStmt());
+      case LAZY:
+        {
+          Token brace = readToken();
+          int count = count();
+          List<Token> tokens = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) tokens.add(readToken());
+          return new Stmt.Lazy(brace, tokens);
+        }
+      case IMPORT:
+        return new Stmt.Import(readToken(), readToken());
+      default:
+        throw new IOException("Not a statement: " + tag);
+    }
+  }
+
+  private Expr readExpr() throws IOException {
+    byte tag = in.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case ASSIGN:
+        return new Expr.Assign(readToken(), readExpr());
+      case BINARY:
+        return new Expr.Binary(readExpr(), readToken(), readExpr());
+      case CALL:
+        {
+          Expr callee = readExpr();
+          Token paren = readToken();
+          int count = count();
+          List<Expr> arguments = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) arguments.add(readExpr());
+          return new Expr.Call(callee, paren, arguments);
+        }
+      case GROUPING:
+        return new Expr.Grouping(readExpr());
+      case LITERAL:
+        return new Expr.Literal(readLiteral());
+      case UNARY:
+        return new Expr.Unary(readToken(), readExpr());
+      case LOGICAL:
+        return new Expr.Logical(readExpr(), readToken(), readExpr());
+      case VARIABLE:
+        return new Expr.Variable(readToken());
+      default:
+        throw new IOException("Not an expression: " + tag);
+    }
+  }
+
+  private Token readToken() {
+    TokenType type = TYPES[in.get()];
+    int line = readVarint();
+    int column = readVarint();
+    String lexeme = TokenBuffer.spelling(type);
+    if (lexeme == null) lexeme = strings[readVarint()];
+    Object literal = null;
+    if (type == TokenType.NUMBER) {
+      literal = Double.parseDouble(lexeme);
+    } else if (type == TokenType.STRING) {
+      literal = lexeme.substring(1, lexeme.length() - 1);
+    }
+    return new Token(type, lexeme, literal, line, column);
+  }
+
+  private Object readLiteral() throws IOException {
+    byte tag = in.get();
+    switch (tag) {
+      case NIL_VALUE:
+        return null;
+      case TRUE_VALUE:
+        return true;
+      case FALSE_VALUE:
+        return false;
+      case NUMBER_VALUE:
+        return in.getDouble();
+      case STRING_VALUE:
+        return strings[readVarint()];
+      default:
+        throw new IOException("Not a literal: " + tag);
+    }
+  }
+
+  // a count of things still to be read, which can not exceed the bytes left
+  private int count() {
+    int count = readVarint();
+    if (count < 0 || count > in.remaining()) throw new BufferUnderflowException();
+    return count;
+  }
+
+  private int readVarint() {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) return value;
+    }
+    throw new IllegalStateException("Varint too long");
+  }
+}
@@ -1,6 +1,6 @@
 package com.craftinginterpreters.lox;
 
-public class jj implements Expr.Visitor<String> {
+public class AstPrinter implements Expr.Visitor<String> {
   String print(Expr expr) {
     return expr.accept(this);
   }
@@ -15,6 +15,14 @@ public class jj implements Expr.Visitor<String> {
     return parenthesize(expr.operator.lexeme, expr.left, expr.right);
   }
 
+  @Override
+  public String visitCallExpr(Expr.Call expr) {
+    Expr[] exprs = new Expr[expr.arguments.size() + 1];
+    exprs[0] = expr.callee;
+    for (int i = 0; i < expr.arguments.size(); i++) exprs[i + 1] = expr.arguments.get(i);
+    return parenthesize("call", exprs);
+  }
+
   @Override
   public String visitGroupingExpr(Expr.Grouping expr) {
     return parenthesize("group", expr.expression);
@@ -0,0 +1,113 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes printed lines as UTF-8 into a buffer and writes the buffer to a channel, so a print costs
+ * a copy instead of a synchronized, flushing {@code PrintStream} call.
+ */
+public class ChannelSink implements OutputSink {
+  /** When the buffer is written out, besides on {@link #flush()}. */
+  public enum Flush {
+    /** After every line, for a terminal someone is watching. */
+    LINE,
+    /** Whenever the buffer is full. */
+    SIZE,
+    /** Only on flush, the buffer grows to hold everything printed until then. */
+    EXIT
+  }
+
+  private static final String NEWLINE = System.lineSeparator();
+  private static final byte[] NEWLINE_BYTES = NEWLINE.getBytes(StandardCharsets.US_ASCII);
+  static final int DEFAULT_SIZE = 1 << 16;
+
+  private final WritableByteChannel channel;
+  private final Flush flush;
+  private final CharsetEncoder encoder =
+      StandardCharsets.UTF_8
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private ByteBuffer buffer;
+  private final char[] number = new char[NumberFormatter.MAX_LENGTH];
+
+  public ChannelSink(WritableByteChannel channel, Flush flush, int size) {
+    this.channel = channel;
+    this.flush = flush;
+    this.buffer = ByteBuffer.allocate(size);
+  }
+
+  /** Standard output, line buffered when it is a terminal and block buffered otherwise. */
+  public static ChannelSink stdout() {
+    return stdout(System.console() != null ? Flush.LINE : Flush.SIZE);
+  }
+
+  // goes through System.out, so whatever else is printed there stays in order once flushed
+  static ChannelSink stdout(Flush flush) {
+    return new ChannelSink(Channels.newChannel(System.out), flush, DEFAULT_SIZE);
+  }
+
+  @Override
+  public void println(String text) {
+    encode(text);
+    encode(NEWLINE);
+    if (flush == Flush.LINE) flush();
+  }
+
+  @Override
+  public void println(double value) {
+    int length = NumberFormatter.format(value, number, 0);
+    while (buffer.remaining() < length + NEWLINE_BYTES.length) makeRoom();
+    // numbers are ascii, no encoder needed
+    for (int i = 0; i < length; i++) buffer.put((byte) number[i]);
+    buffer.put(NEWLINE_BYTES);
+    if (flush == Flush.LINE) flush();
+  }
+
+  private void encode(String text) {
+    CharBuffer chars = CharBuffer.wrap(text);
+    encoder.reset();
+    while (true) {
+      // utf-8 keeps no state between chars, there is nothing for encoder.flush to add
+      CoderResult result = encoder.encode(chars, buffer, true);
+      if (result.isUnderflow()) return;
+      // overflow, make room and go on where the encoder stopped
+      makeRoom();
+    }
+  }
+
+  private void makeRoom() {
+    if (flush == Flush.EXIT || buffer.position() == 0) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, 16));
+      buffer.flip();
+      buffer = larger.put(buffer);
+    } else {
+      write();
+    }
+  }
+
+  @Override
+  public void flush() {
+    write();
+  }
+
+  private void write() {
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) channel.write(buffer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      buffer.clear();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled program: the bytecode, the constant pool and the names of the globals. Opcodes take a
+ * byte and operands two, big endian, except in the long forms of {@link OpCode} that take four.
+ * Constants are interned, a literal that appears many times takes one entry, and a global takes
+ * one slot however often it is used. Tokens are only looked at for runtime errors, so they are kept
+ * apart, one entry for each instruction whose token differs from the one before it.
+ */
+class Chunk {
+  private byte[] code = new byte[256];
+  private int count = 0;
+  // tokenStarts[i] is where the instructions compiled from tokens[i] begin
+  private int[] tokenStarts = new int[64];
+  private Token[] tokens = new Token[64];
+  private int tokenCount = 0;
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndex = new HashMap<>();
+  private final List<String> globals = new ArrayList<>();
+  private final Map<String, Integer> globalIndex = new HashMap<>();
+  int locals = 0;
+  int maxStack = 0;
+
+  void writeOp(byte op, Token token) {
+    if (tokenCount == 0 || tokens[tokenCount - 1] != token) {
+      if (tokenCount == tokens.length) {
+        tokenStarts = Arrays.copyOf(tokenStarts, tokenCount * 2);
+        tokens = Arrays.copyOf(tokens, tokenCount * 2);
+      }
+      tokenStarts[tokenCount] = count;
+      tokens[tokenCount] = token;
+      tokenCount++;
+    }
+    write(op);
+  }
+
+  void writeShort(int value) {
+    write(value >> 8);
+    write(value);
+  }
+
+  void writeInt(int value) {
+    writeShort(value >>> 16);
+    writeShort(value);
+  }
+
+  private void write(int value) {
+    if (count == code.length) code = Arrays.copyOf(code, count * 2);
+    code[count++] = (byte) value;
+  }
+
+  void patchShort(int offset, int value) {
+    code[offset] = (byte) (value >> 8);
+    code[offset + 1] = (byte) value;
+  }
+
+  void patchInt(int offset, int value) {
+    patchShort(offset, value >>> 16);
+    patchShort(offset + 2, value);
+  }
+
+  // Double.equals tells 0.0 from -0.0, so they stay two constants
+  int addConstant(Object value) {
+    Integer index = constantIndex.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndex.put(value, index);
+    }
+    return index;
+  }
+
+  int addGlobal(String name) {
+    Integer index = globalIndex.get(name);
+    if (index == null) {
+      index = globals.size();
+      globals.add(name);
+      globalIndex.put(name, index);
+    }
+    return index;
+  }
+
+  int size() {
+    return count;
+  }
+
+  byte[] code() {
+    return code;
+  }
+
+  /** The token the instruction at offset was compiled from, what its runtime errors are at. */
+  Token token(int offset) {
+    int index = Arrays.binarySearch(tokenStarts, 0, tokenCount, offset);
+    return tokens[index >= 0 ? index : -index - 2];
+  }
+
+  Object[] constants() {
+    return constants.toArray();
+  }
+
+  String[] globals() {
+    return globals.toArray(new String[0]);
+  }
+}
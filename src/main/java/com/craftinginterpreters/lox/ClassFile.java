@@ -0,0 +1,308 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the class files {@link JvmCompiler} loads: a constant pool of the classes, methods and
+ * integers the code refers to, and methods whose only attribute is their code. The version is 49,
+ * the last one the JVM verifies by inferring the types itself, so no stack map frames are written.
+ */
+final class ClassFile {
+  private static final int VERSION = 49;
+  private static final int MAX_POOL = 0xffff;
+
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_PRIVATE = 0x0002;
+  static final int ACC_STATIC = 0x0008;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  // the instructions the compiler emits
+  static final int ACONST_NULL = 0x01;
+  static final int ICONST_0 = 0x03;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC_W = 0x13;
+  static final int ALOAD = 0x19;
+  static final int AALOAD = 0x32;
+  static final int ASTORE = 0x3a;
+  static final int AASTORE = 0x53;
+  static final int POP = 0x57;
+  static final int DUP = 0x59;
+  static final int SWAP = 0x5f;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int GOTO = 0xa7;
+  static final int RETURN = 0xb1;
+  static final int GETSTATIC = 0xb2;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int ANEWARRAY = 0xbd;
+  static final int WIDE = 0xc4;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private final Bytes pool = new Bytes();
+  private final Map<String, Integer> entries = new HashMap<>();
+  private int count = 1;
+  private final Bytes methods = new Bytes();
+  private int methodCount = 0;
+  private final int thisClass;
+  private final int superClass;
+  private final int access;
+
+  ClassFile(int access, String name, String superName) {
+    this.access = access;
+    this.thisClass = classRef(name);
+    this.superClass = classRef(superName);
+  }
+
+  /** False once the constant pool outgrew what a class file can index. */
+  boolean fits() {
+    return count <= MAX_POOL;
+  }
+
+  int classRef(String name) {
+    int utf8 = utf8(name);
+    return entry("C" + name, () -> pool.u1(CONSTANT_CLASS).u2(utf8));
+  }
+
+  int fieldRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+  }
+
+  int integer(int value) {
+    return entry("I" + value, () -> pool.u1(CONSTANT_INTEGER).u4(value));
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    int type = classRef(owner);
+    int nameUtf8 = utf8(name);
+    int descriptorUtf8 = utf8(descriptor);
+    int nameAndType =
+        entry(
+            "N" + name + " " + descriptor,
+            () -> pool.u1(CONSTANT_NAME_AND_TYPE).u2(nameUtf8).u2(descriptorUtf8));
+    return entry(
+        tag + owner + "." + name + descriptor, () -> pool.u1(tag).u2(type).u2(nameAndType));
+  }
+
+  // the names the compiler writes are ascii, where modified utf-8 is plain ascii too
+  private int utf8(String value) {
+    return entry(
+        "U" + value,
+        () -> {
+          byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+          pool.u1(CONSTANT_UTF8).u2(bytes.length).append(bytes, bytes.length);
+        });
+  }
+
+  private int entry(String key, Runnable write) {
+    Integer index = entries.get(key);
+    if (index == null) {
+      write.run();
+      index = count++;
+      entries.put(key, index);
+    }
+    return index;
+  }
+
+  void method(int access, String name, String descriptor, Code code) {
+    int nameUtf8 = utf8(name);
+    int descriptorUtf8 = utf8(descriptor);
+    int attribute = utf8("Code");
+    methods.u2(access).u2(nameUtf8).u2(descriptorUtf8).u2(1);
+    methods.u2(attribute).u4(12 + code.length);
+    methods.u2(code.maxStack).u2(code.maxLocals).u4(code.length);
+    methods.append(code.bytes, code.length);
+    methods.u2(0).u2(0);
+    methodCount++;
+  }
+
+  byte[] toByteArray() {
+    Bytes out = new Bytes();
+    out.u4(0xcafebabe).u2(0).u2(VERSION);
+    out.u2(count).append(pool.bytes, pool.length);
+    out.u2(access).u2(thisClass).u2(superClass).u2(0).u2(0);
+    out.u2(methodCount).append(methods.bytes, methods.length);
+    out.u2(0);
+    return Arrays.copyOf(out.bytes, out.length);
+  }
+
+  /**
+   * The code of one method, with the stack depth followed as instructions are added so the method
+   * can declare its maximum. Jumps are relative, so code can be appended to other code as it is.
+   */
+  static final class Code extends Bytes {
+    private final ClassFile file;
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals = 0;
+    private boolean tooFar = false;
+
+    Code(ClassFile file) {
+      this.file = file;
+    }
+
+    int length() {
+      return length;
+    }
+
+    /** False once a jump went further than a 16 bit offset reaches. */
+    boolean fits() {
+      return !tooFar;
+    }
+
+    /** Adds an instruction without operands that changes the stack depth by effect. */
+    Code op(int opcode, int effect) {
+      u1(opcode);
+      return grow(effect);
+    }
+
+    private Code grow(int effect) {
+      stack += effect;
+      maxStack = Math.max(maxStack, stack);
+      return this;
+    }
+
+    void pushInt(int value) {
+      if (value >= -1 && value <= 5) {
+        op(ICONST_0 + value, 1);
+      } else if (value == (byte) value) {
+        op(BIPUSH, 1).u1(value);
+      } else if (value == (short) value) {
+        op(SIPUSH, 1).u2(value);
+      } else {
+        op(LDC_W, 1).u2(file.integer(value));
+      }
+    }
+
+    void load(int slot) {
+      local(ALOAD, slot);
+      grow(1);
+    }
+
+    void store(int slot) {
+      local(ASTORE, slot);
+      grow(-1);
+    }
+
+    private void local(int opcode, int slot) {
+      maxLocals = Math.max(maxLocals, slot + 1);
+      if (slot < 4) {
+        // aload_0 and astore_0 start runs of four
+        u1(opcode == ALOAD ? 0x2a + slot : 0x4b + slot);
+      } else if (slot < 256) {
+        u1(opcode).u1(slot);
+      } else {
+        u1(WIDE).u1(opcode).u2(slot);
+      }
+    }
+
+    void getStatic(String owner, String name, String descriptor) {
+      op(GETSTATIC, 1).u2(file.fieldRef(owner, name, descriptor));
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor) {
+      int effect = -arguments(descriptor);
+      if (opcode != INVOKESTATIC) effect--;
+      if (descriptor.charAt(descriptor.length() - 1) != 'V') effect++;
+      op(opcode, effect).u2(file.methodRef(owner, name, descriptor));
+    }
+
+    void newArray(String type) {
+      op(ANEWARRAY, 0).u2(file.classRef(type));
+    }
+
+    /** Adds a jump to be landed later, returns what {@link #land} takes. */
+    int jump(int opcode) {
+      int at = length;
+      op(opcode, opcode == GOTO ? 0 : -1).u2(0);
+      return at;
+    }
+
+    /** Points the jump at the code added next. */
+    void land(int jump) {
+      int offset = length - jump;
+      if (offset > Short.MAX_VALUE) tooFar = true;
+      bytes[jump + 1] = (byte) (offset >> 8);
+      bytes[jump + 2] = (byte) offset;
+    }
+
+    void jumpBack(int opcode, int target) {
+      int offset = target - length;
+      if (offset < Short.MIN_VALUE) tooFar = true;
+      op(opcode, opcode == GOTO ? 0 : -1).u2(offset);
+    }
+
+    /** Adds the other code after this code, it must leave the stack as it found it. */
+    void append(Code other) {
+      maxStack = Math.max(maxStack, stack + other.maxStack);
+      maxLocals = Math.max(maxLocals, other.maxLocals);
+      tooFar |= other.tooFar;
+      append(other.bytes, other.length);
+    }
+
+    // the slots the arguments of a method descriptor take, none of ours are long or double
+    private static int arguments(String descriptor) {
+      int count = 0;
+      int i = 1;
+      while (descriptor.charAt(i) != ')') {
+        while (descriptor.charAt(i) == '[') i++;
+        if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+        i++;
+        count++;
+      }
+      return count;
+    }
+  }
+
+  // a growing byte array that writes big endian, as the class file format is
+  private static class Bytes {
+    byte[] bytes = new byte[256];
+    int length = 0;
+
+    Bytes u1(int value) {
+      ensure(1);
+      bytes[length++] = (byte) value;
+      return this;
+    }
+
+    Bytes u2(int value) {
+      ensure(2);
+      bytes[length++] = (byte) (value >> 8);
+      bytes[length++] = (byte) value;
+      return this;
+    }
+
+    Bytes u4(int value) {
+      return u2(value >>> 16).u2(value);
+    }
+
+    Bytes append(byte[] values, int count) {
+      ensure(count);
+      System.arraycopy(values, 0, bytes, length, count);
+      length += count;
+      return this;
+    }
+
+    private void ensure(int more) {
+      if (length + more > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+      }
+    }
+  }
+}
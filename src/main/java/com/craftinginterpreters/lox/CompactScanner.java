@@ -0,0 +1,236 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * A scanner that records tokens into a {@link TokenBuffer} instead of allocating a {@link Token}
+ * and a substring for each of them. Keywords are recognized by switching on their characters, the
+ * way clox does it. Produces exactly the tokens {@link Scanner} does.
+ */
+class CompactScanner {
+  private final String source;
+  private final TokenBuffer tokens;
+  private int start = 0;
+  private int current = 0;
+  private int line = 1;
+  private int lineStart = 0;
+
+  CompactScanner(String source) {
+    this.source = source;
+    this.tokens = new TokenBuffer(source);
+  }
+
+  TokenBuffer scanTokens() {
+    long started = LoxMetrics.start();
+    while (!isAtEnd()) {
+      // we are at the beginning of the next lexeme
+      start = current;
+      scanToken();
+    }
+    tokens.add(EOF, current, 0, line, current - lineStart + 1);
+    if (LoxMetrics.ENABLED) LoxMetrics.scanned(tokens.size(), started);
+    return tokens;
+  }
+
+  private void scanToken() {
+    char ch = advance();
+    switch (ch) {
+      case '(':
+        addToken(LEFT_PAREN);
+        break;
+      case ')':
+        addToken(RIGHT_PAREN);
+        break;
+      case '{':
+        addToken(LEFT_BRACE);
+        break;
+      case '}':
+        addToken(RIGHT_BRACE);
+        break;
+      case ',':
+        addToken(COMMA);
+        break;
+      case '.':
+        addToken(DOT);
+        break;
+      case '-':
+        addToken(MINUS);
+        break;
+      case '+':
+        addToken(PLUS);
+        break;
+      case ';':
+        addToken(SEMICOLON);
+        break;
+      case '*':
+        addToken(STAR);
+        break;
+      case '!':
+        addToken(match('=') ? BANG_EQUAL : BANG);
+        break;
+      case '=':
+        addToken(match('=') ? EQUAL_EQUAL : EQUAL);
+        break;
+      case '>':
+        addToken(match('=') ? GREATER_EQUAL : GREATER);
+        break;
+      case '<':
+        addToken(match('=') ? LESS_EQUAL : LESS);
+        break;
+      case '/':
+        if (match('/')) {
+          // A comment goes until the end of the line
+          while (peek() != '\n' && !isAtEnd()) advance();
+        } else {
+          addToken(SLASH);
+        }
+        break;
+      case ' ':
+      case '\r':
+      case '\t':
+        break;
+      case '\n':
+        line++;
+        lineStart = current;
+        break;
+      case '"':
+        string();
+        break;
+      default:
+        if (Character.isDigit(ch)) {
+          number();
+        } else if (Character.isLetterOrDigit(ch)) {
+          identifier();
+        } else {
+          Lox.error(line, start - lineStart + 1, "Unexpected character");
+        }
+        break;
+    }
+  }
+
+  private void identifier() {
+    while (Character.isAlphabetic(peek())) advance();
+    addToken(identifierType());
+  }
+
+  private TokenType identifierType() {
+    switch (source.charAt(start)) {
+      case 'a':
+        return checkKeyword(1, "nd", AND);
+      case 'c':
+        return checkKeyword(1, "lass", CLASS);
+      case 'e':
+        return checkKeyword(1, "lse", ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'a':
+              return checkKeyword(2, "lse", FALSE);
+            case 'o':
+              return checkKeyword(2, "r", FOR);
+            case 'u':
+              return checkKeyword(2, "n", FUN);
+          }
+        }
+        break;
+      case 'i':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'f':
+              return checkKeyword(2, "", IF);
+            case 'm':
+              return checkKeyword(2, "port", IMPORT);
+          }
+        }
+        break;
+      case 'n':
+        return checkKeyword(1, "il", NIL);
+      case 'o':
+        return checkKeyword(1, "r", OR);
+      case 'p':
+        return checkKeyword(1, "rint", PRINT);
+      case 'r':
+        return checkKeyword(1, "eturn", RETURN);
+      case 's':
+        return checkKeyword(1, "uper", SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'h':
+              return checkKeyword(2, "is", THIS);
+            case 'r':
+              return checkKeyword(2, "ue", TRUE);
+          }
+        }
+        break;
+      case 'v':
+        return checkKeyword(1, "ar", VAR);
+      case 'w':
+        return checkKeyword(1, "hile", WHILE);
+    }
+    return IDENTIFIER;
+  }
+
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start == offset + rest.length()
+        && source.regionMatches(start + offset, rest, 0, rest.length())) {
+      return type;
+    }
+    return IDENTIFIER;
+  }
+
+  private void number() {
+    while (Character.isDigit(peek())) advance();
+    if (peek() == '.' && Character.isDigit(peekNext())) {
+      advance();
+      while (Character.isDigit(peek())) advance();
+    }
+    addToken(NUMBER);
+  }
+
+  private void string() {
+    int column = start - lineStart + 1;
+    while (peek() != '"' && !isAtEnd()) {
+      if (peek() == '\n') {
+        line++;
+        lineStart = current + 1;
+      }
+      advance();
+    }
+    if (isAtEnd()) {
+      Lox.error(line, current - lineStart + 1, "Unterminated string");
+      return;
+    }
+    advance();
+    tokens.add(STRING, start, current - start, line, column);
+  }
+
+  private char peek() {
+    if (isAtEnd()) return '\0';
+    return source.charAt(current);
+  }
+
+  private char peekNext() {
+    if (current + 1 >= source.length()) return '\0';
+    return source.charAt(current + 1);
+  }
+
+  private boolean match(char ch) {
+    if (isAtEnd()) return false;
+    if (source.charAt(current) != ch) return false;
+    current++;
+    return true;
+  }
+
+  private char advance() {
+    return source.charAt(current++);
+  }
+
+  private void addToken(TokenType type) {
+    tokens.add(type, start, current - start, line, start - lineStart + 1);
+  }
+
+  private boolean isAtEnd() {
+    return current >= source.length();
+  }
+}
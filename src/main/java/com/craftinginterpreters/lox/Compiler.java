@@ -0,0 +1,407 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+/**
+ * Compiles a parsed program into a {@link Chunk} for the {@link VM}. Locals of every block are laid
+ * out in one flat frame, an inner block reuses the slots of the blocks that closed before it.
+ *
+ * <p>Forward jumps are emitted before their targets are known, with two byte offsets. A program in
+ * which one of them goes further is compiled again with every jump in its long form.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final Chunk chunk = new Chunk();
+  private final boolean longJumps;
+  private boolean tooFar = false;
+  private final List<Map<String, Integer>> scopes = new ArrayList<>();
+  private int nextSlot = 0;
+  private int depth = 0;
+  // what the code being emitted was compiled from, null before the first token
+  private Token token = null;
+
+  Compiler() {
+    this(false);
+  }
+
+  private Compiler(boolean longJumps) {
+    this.longJumps = longJumps;
+  }
+
+  Chunk compile(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      compile(statement);
+    }
+    emitOp(RETURN);
+    if (tooFar) return new Compiler(true).compile(statements);
+    return chunk;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  private void emitOp(byte op) {
+    chunk.writeOp(op, token);
+    depth += stackEffect(op);
+    chunk.maxStack = Math.max(chunk.maxStack, depth);
+  }
+
+  private static int stackEffect(byte op) {
+    switch (op) {
+      case CONSTANT:
+      case CONSTANT_LONG:
+      case NIL:
+      case TRUE:
+      case FALSE:
+      case GET_GLOBAL:
+      case GET_GLOBAL_LONG:
+      case GET_LOCAL:
+      case GET_LOCAL_LONG:
+        return 1;
+      case POP:
+      case POP_JUMP_IF_FALSE:
+      case POP_JUMP_IF_FALSE_LONG:
+      case DEFINE_GLOBAL:
+      case DEFINE_GLOBAL_LONG:
+      case DEFINE_LOCAL:
+      case DEFINE_LOCAL_LONG:
+      case ADD:
+      case SUBTRACT:
+      case MULTIPLY:
+      case DIVIDE:
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+      case EQUAL:
+      case NOT_EQUAL:
+      case PRINT:
+        return -1;
+      default:
+        return 0;
+    }
+  }
+
+  // the long form only when the operand does not fit in two bytes
+  private void emitWithOperand(byte op, byte longOp, int operand) {
+    if (operand <= 0xffff) {
+      emitOp(op);
+      chunk.writeShort(operand);
+    } else {
+      emitOp(longOp);
+      chunk.writeInt(operand);
+    }
+  }
+
+  private int constant(Object value) {
+    return chunk.addConstant(value);
+  }
+
+  private int global(Token name) {
+    return chunk.addGlobal(name.lexeme);
+  }
+
+  // jump offsets count from the end of the instruction, returns where the operand is
+  private int emitJump(byte op, byte longOp) {
+    emitOp(longJumps ? longOp : op);
+    int operand = chunk.size();
+    if (longJumps) {
+      chunk.writeInt(-1);
+    } else {
+      chunk.writeShort(-1);
+    }
+    return operand;
+  }
+
+  private void patchJump(int operand) {
+    if (longJumps) {
+      chunk.patchInt(operand, chunk.size() - operand - 4);
+      return;
+    }
+    int jump = chunk.size() - operand - 2;
+    if (jump > 0xffff) tooFar = true;
+    chunk.patchShort(operand, jump);
+  }
+
+  // how far back is known already, so only a loop that needs it takes the long form
+  private void emitLoop(int loopStart) {
+    int jump = chunk.size() + 3 - loopStart;
+    if (jump <= 0xffff) {
+      emitOp(LOOP);
+      chunk.writeShort(jump);
+    } else {
+      emitOp(LOOP_LONG);
+      chunk.writeInt(jump + 2);
+    }
+  }
+
+  private Integer local(Token name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Integer slot = scopes.get(i).get(name.lexeme);
+      if (slot != null) return slot;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    token = expr.name;
+    Integer slot = local(expr.name);
+    if (slot != null) {
+      emitWithOperand(SET_LOCAL, SET_LOCAL_LONG, slot);
+    } else {
+      emitWithOperand(SET_GLOBAL, SET_GLOBAL_LONG, global(expr.name));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    compile(expr.right);
+    token = expr.operator;
+    byte op;
+    switch (expr.operator.type) {
+      case PLUS:
+        op = ADD;
+        break;
+      case MINUS:
+        op = SUBTRACT;
+        break;
+      case STAR:
+        op = MULTIPLY;
+        break;
+      case SLASH:
+        op = DIVIDE;
+        break;
+      case GREATER:
+        op = GREATER;
+        break;
+      case GREATER_EQUAL:
+        op = GREATER_EQUAL;
+        break;
+      case LESS:
+        op = LESS;
+        break;
+      case LESS_EQUAL:
+        op = LESS_EQUAL;
+        break;
+      case EQUAL_EQUAL:
+        op = EQUAL;
+        break;
+      case BANG_EQUAL:
+        op = NOT_EQUAL;
+        break;
+      default:
+        // the interpreter evaluates both sides of an unknown operator and yields nil
+        emitOp(POP);
+        emitOp(POP);
+        emitOp(NIL);
+        return null;
+    }
+    emitOp(op);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    compile(expr.callee);
+    for (Expr argument : expr.arguments) {
+      compile(argument);
+    }
+    token = expr.paren;
+    emitWithOperand(CALL, CALL_LONG, expr.arguments.size());
+    depth -= expr.arguments.size();
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emitOp(NIL);
+    } else if (Boolean.TRUE.equals(expr.value)) {
+      emitOp(TRUE);
+    } else if (Boolean.FALSE.equals(expr.value)) {
+      emitOp(FALSE);
+    } else {
+      emitWithOperand(CONSTANT, CONSTANT_LONG, constant(expr.value));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+    token = expr.operator;
+    switch (expr.operator.type) {
+      case MINUS:
+        emitOp(NEGATE);
+        break;
+      case BANG:
+        emitOp(NOT);
+        break;
+      default:
+        emitOp(POP);
+        emitOp(NIL);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+    token = expr.operator;
+    if (expr.operator.type == TokenType.OR) {
+      int elseJump = emitJump(JUMP_IF_FALSE, JUMP_IF_FALSE_LONG);
+      int endJump = emitJump(JUMP, JUMP_LONG);
+      patchJump(elseJump);
+      emitOp(POP);
+      compile(expr.right);
+      patchJump(endJump);
+    } else {
+      int endJump = emitJump(JUMP_IF_FALSE, JUMP_IF_FALSE_LONG);
+      emitOp(POP);
+      compile(expr.right);
+      patchJump(endJump);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    token = expr.name;
+    Integer slot = local(expr.name);
+    if (slot != null) {
+      emitWithOperand(GET_LOCAL, GET_LOCAL_LONG, slot);
+    } else {
+      emitWithOperand(GET_GLOBAL, GET_GLOBAL_LONG, global(expr.name));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    int base = nextSlot;
+    scopes.add(new HashMap<>());
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    scopes.remove(scopes.size() - 1);
+    nextSlot = base;
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    if (stmt.expression instanceof Expr.Assign) {
+      Expr.Assign assign = (Expr.Assign) stmt.expression;
+      Integer slot = local(assign.name);
+      if (slot != null) {
+        // nothing reads the assigned value, so store it the way a declaration does
+        int done = -1;
+        int step = assign.step == null ? -1 : constant(assign.step);
+        if (step >= 0 && step <= 0xffff && slot <= 0xffff && !longJumps) {
+          // a for loop increment, skips the assignment below while the slot holds a number
+          token = assign.name;
+          emitOp(INCREMENT_LOCAL);
+          chunk.writeShort(slot);
+          chunk.writeShort(step);
+          done = chunk.size();
+          chunk.writeShort(-1);
+        }
+        compile(assign.value);
+        token = assign.name;
+        emitWithOperand(DEFINE_LOCAL, DEFINE_LOCAL_LONG, slot);
+        if (done >= 0) patchJump(done);
+        return null;
+      }
+    }
+    compile(stmt.expression);
+    emitOp(POP);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    emitOp(PRINT);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    } else {
+      emitOp(NIL);
+    }
+    token = stmt.name;
+    if (scopes.isEmpty()) {
+      emitWithOperand(DEFINE_GLOBAL, DEFINE_GLOBAL_LONG, global(stmt.name));
+      return null;
+    }
+    Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+    Integer slot = scope.get(stmt.name.lexeme);
+    if (slot == null) {
+      slot = nextSlot++;
+      scope.put(stmt.name.lexeme, slot);
+      chunk.locals = Math.max(chunk.locals, nextSlot);
+    }
+    emitWithOperand(DEFINE_LOCAL, DEFINE_LOCAL_LONG, slot);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.condition);
+    int elseJump = emitJump(POP_JUMP_IF_FALSE, POP_JUMP_IF_FALSE_LONG);
+    compile(stmt.thenBranch);
+    int endJump = emitJump(JUMP, JUMP_LONG);
+    patchJump(elseJump);
+    if (stmt.elseBranch != null) compile(stmt.elseBranch);
+    patchJump(endJump);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int loopStart = chunk.size();
+    compile(stmt.condition);
+    int exitJump = emitJump(POP_JUMP_IF_FALSE, POP_JUMP_IF_FALSE_LONG);
+    compile(stmt.body);
+    emitLoop(loopStart);
+    patchJump(exitJump);
+    return null;
+  }
+
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    // the chunk is built up front, so a lazy block is parsed right away
+    Stmt.Block body = Lox.materialize(stmt);
+    if (body != null) compile(body);
+    return null;
+  }
+
+  // Lox runs a program that imports in the tree walking interpreter instead
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    Lox.error(stmt.keyword, "Imports are only run by the tree walking interpreter");
+    return null;
+  }
+}
@@ -0,0 +1,268 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Interpreter for --coverage, it records which statements and expressions ran. Before a program
+ * runs {@link #number} gives each of its nodes an id, kept in a map beside the tree, and notes the
+ * node's line. Running a node then looks its id up and sets bit id of a long array that is already
+ * big enough. At exit the bits are folded into lines, a line is covered when any node on it ran,
+ * and written as an LCOV tracefile with a record for the script and one for every module it
+ * imported.
+ *
+ * <p>The nodes of the script are numbered as the resolver left them, the optimizers that would
+ * fold or replace some of them are not run. Modules come optimized out of the loader's cache, their
+ * folded lines are left out of the report. Without --coverage this class is never loaded and
+ * execute and evaluate are not overridden.
+ */
+class CoverageInterpreter extends Interpreter {
+  private long[] hits = new long[1];
+  // line of each node, by id, and the index in files of the file it is in
+  private int[] lines = new int[64];
+  private int[] fileOf = new int[64];
+  private int nodes = 0;
+  // the id of each node, looked up by the node itself, which is never equal to another
+  private final Map<Object, Integer> ids = new IdentityHashMap<>();
+  private final List<String> files = new ArrayList<>();
+  private final Set<String> numbered = new HashSet<>();
+
+  CoverageInterpreter(OutputSink out) {
+    super(out);
+  }
+
+  @Override
+  void execute(Stmt stmt) {
+    hit(stmt);
+    super.execute(stmt);
+  }
+
+  @Override
+  Object evaluate(Expr expr) {
+    hit(expr);
+    return super.evaluate(expr);
+  }
+
+  private void hit(Object node) {
+    Integer id = ids.get(node);
+    if (id != null) hits[id >>> 6] |= 1L << id;
+  }
+
+  /** Numbers the nodes of statements in file that are about to run for the first time. */
+  void number(String file, List<Stmt> statements) {
+    int index = files.indexOf(file);
+    if (index < 0) {
+      index = files.size();
+      files.add(file);
+    }
+    new Numbering(index).number(statements);
+    int words = (nodes + 63) >>> 6;
+    if (words > hits.length) hits = Arrays.copyOf(hits, words);
+  }
+
+  // a module is numbered once, however many imports name it, and modules in the order of paths
+  @Override
+  void modules(Map<Stmt.Import, ModuleLoader.Module> modules) {
+    super.modules(modules);
+    Map<String, ModuleLoader.Module> byPath = new TreeMap<>();
+    for (ModuleLoader.Module module : modules.values()) byPath.put(module.path, module);
+    for (ModuleLoader.Module module : byPath.values()) {
+      if (numbered.add(module.path)) number(module.path, module.statements);
+    }
+  }
+
+  private int add(int line, int file) {
+    if (nodes == lines.length) {
+      lines = Arrays.copyOf(lines, nodes * 2);
+      fileOf = Arrays.copyOf(fileOf, nodes * 2);
+    }
+    lines[nodes] = line;
+    fileOf[nodes] = file;
+    return nodes++;
+  }
+
+  // every line of the file with a node on it, and whether one of them ran
+  private Map<Integer, Boolean> covered(int file) {
+    Map<Integer, Boolean> covered = new TreeMap<>();
+    for (int id = 0; id < nodes; id++) {
+      if (fileOf[id] != file) continue;
+      boolean hit = (hits[id >>> 6] & 1L << id) != 0;
+      covered.merge(lines[id], hit, Boolean::logicalOr);
+    }
+    return covered;
+  }
+
+  /** Writes the lines of every file as an LCOV tracefile and prints how many of them ran. */
+  void report(Path file, PrintStream out) throws IOException {
+    List<String> records = new ArrayList<>();
+    int hit = 0;
+    int found = 0;
+    for (int index = 0; index < files.size(); index++) {
+      Map<Integer, Boolean> covered = covered(index);
+      records.add("TN:");
+      records.add("SF:" + files.get(index));
+      int fileHit = 0;
+      for (Map.Entry<Integer, Boolean> line : covered.entrySet()) {
+        records.add("DA:" + line.getKey() + "," + (line.getValue() ? 1 : 0));
+        if (line.getValue()) fileHit++;
+      }
+      records.add("LH:" + fileHit);
+      records.add("LF:" + covered.size());
+      records.add("end_of_record");
+      hit += fileHit;
+      found += covered.size();
+    }
+    Files.write(file, records, StandardCharsets.UTF_8);
+    out.println(
+        String.format(
+            "Coverage: %d of %d lines, %.1f%%, written to %s",
+            hit, found, found == 0 ? 100.0 : 100.0 * hit / found, file));
+  }
+
+  /**
+   * Gives the nodes their ids in the order they appear. A node with a token is on the token's line,
+   * literals and groupings are on the line of the statement they are in.
+   */
+  private class Numbering implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final int file;
+    private int line;
+
+    Numbering(int file) {
+      this.file = file;
+    }
+
+    void number(List<Stmt> statements) {
+      for (Stmt statement : statements) number(statement);
+    }
+
+    private void number(Stmt stmt) {
+      if (stmt == null) return;
+      line = stmt.line;
+      ids.put(stmt, add(stmt.line, file));
+      stmt.accept(this);
+    }
+
+    private void number(Expr expr) {
+      if (expr != null) expr.accept(this);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      ids.put(expr, add(expr.name.line, file));
+      number(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      ids.put(expr, add(expr.operator.line, file));
+      number(expr.left);
+      number(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      ids.put(expr, add(expr.paren.line, file));
+      number(expr.callee);
+      for (Expr argument : expr.arguments) number(argument);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      ids.put(expr, add(line, file));
+      number(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      ids.put(expr, add(line, file));
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      ids.put(expr, add(expr.operator.line, file));
+      number(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      ids.put(expr, add(expr.operator.line, file));
+      number(expr.left);
+      number(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      ids.put(expr, add(expr.name.line, file));
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      number(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      number(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      number(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      number(stmt.initializer);
+      return null;
+    }
+
+    // the condition before the branches, they move the line on
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      number(stmt.condition);
+      number(stmt.thenBranch);
+      number(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      number(stmt.condition);
+      number(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+      return null;
+    }
+
+    // coverage turns lazy parsing off, so there are none
+    @Override
+    public Void visitLazyStmt(Stmt.Lazy stmt) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * An error in a script, where it is and what it says. Syntax errors come from the scanner, which
+ * has no token for them, and from the parser and the module loader, runtime errors from whatever
+ * ran the program. {@link #toString} gives it the way the command line prints it.
+ */
+public final class Diagnostic {
+  private final boolean runtime;
+  private final int line;
+  private final int column;
+  private final Token token;
+  private final String where;
+  private final String message;
+
+  Diagnostic(boolean runtime, int line, int column, Token token, String where, String message) {
+    this.runtime = runtime;
+    this.line = line;
+    this.column = column;
+    this.token = token;
+    this.where = where;
+    this.message = message;
+  }
+
+  /** A syntax error at a token. */
+  static Diagnostic at(Token token, String message) {
+    return new Diagnostic(false, token.line, token.column, token, Lox.where(token), message);
+  }
+
+  /** A syntax error with no token, column is 0 when it is not known. */
+  static Diagnostic at(int line, int column, String message) {
+    return new Diagnostic(false, line, column, null, "", message);
+  }
+
+  /** The error that stopped a program. */
+  static Diagnostic of(RuntimeError error) {
+    Token token = error.token;
+    return new Diagnostic(true, token.line, token.column, token, "", error.getMessage());
+  }
+
+  /** The same error, somewhere else, e.g. in a module or where an edit moved it to. */
+  Diagnostic moved(int line, int column, String where) {
+    return new Diagnostic(runtime, line, column, token, where, message);
+  }
+
+  /** Whether it stopped a program rather than kept one from running. */
+  public boolean isRuntime() {
+    return runtime;
+  }
+
+  public int line() {
+    return line;
+  }
+
+  /** Column it is at in its line, from 1, 0 when that is not known. */
+  public int column() {
+    return column;
+  }
+
+  /** The lexeme of the token it is at, null for errors of the scanner. */
+  public String lexeme() {
+    return token == null ? null : token.lexeme;
+  }
+
+  Token token() {
+    return token;
+  }
+
+  /** Empty, or the token it is at the way messages say it, e.g. " at end". */
+  public String where() {
+    return where;
+  }
+
+  public String message() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return runtime
+        ? ErrorReporter.formatRuntime(line, message)
+        : ErrorReporter.format(line, where, message);
+  }
+}
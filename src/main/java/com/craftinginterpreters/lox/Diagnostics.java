@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the errors of a run instead of printing them as they come, so a caller can look at
+ * them, and a validation of many scripts writes each one's errors in one go or not at all.
+ */
+public final class Diagnostics implements ErrorReporter {
+  private final List<Diagnostic> diagnostics = new ArrayList<>();
+  private int runtimeErrors = 0;
+
+  @Override
+  public void report(Diagnostic diagnostic) {
+    diagnostics.add(diagnostic);
+    if (diagnostic.isRuntime()) runtimeErrors++;
+  }
+
+  /** The errors so far, in the order they were found. */
+  public List<Diagnostic> list() {
+    return Collections.unmodifiableList(diagnostics);
+  }
+
+  public int size() {
+    return diagnostics.size();
+  }
+
+  public boolean hasErrors() {
+    return diagnostics.size() > runtimeErrors;
+  }
+
+  public boolean hasRuntimeErrors() {
+    return runtimeErrors > 0;
+  }
+
+  public void clear() {
+    diagnostics.clear();
+    runtimeErrors = 0;
+  }
+
+  /** Writes the errors so far to out with one print, the way the command line does. */
+  public void print(PrintStream out) {
+    if (!diagnostics.isEmpty()) out.print(this);
+  }
+
+  /** The errors so far, one per line. */
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder();
+    for (Diagnostic diagnostic : diagnostics) text.append(diagnostic).append('\n');
+    return text.toString();
+  }
+}
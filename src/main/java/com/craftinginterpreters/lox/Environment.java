@@ -6,31 +6,67 @@ import java.util.Map;
 public class Environment {
   private final Map<String, Object> map = new HashMap<>();
   private Environment enclosing;
+  // locals of a resolved block live here, indexed by the slot the Resolver picked
+  private final Object[] slots;
 
   Environment(Environment enclosing) {
+    this(enclosing, 0);
+  }
+
+  Environment(Environment enclosing, int size) {
+    if (LoxMetrics.ENABLED) LoxMetrics.ENVIRONMENTS.increment();
     this.enclosing = enclosing;
+    this.slots = new Object[size];
   }
 
   void define(String name, Object value) {
     map.put(name, value);
   }
 
+  void defineAt(int slot, Object value) {
+    slots[slot] = value;
+  }
+
+  /** The value of a name defined in this environment itself, or missing when there is none. */
+  Object getOrDefault(String name, Object missing) {
+    return map.getOrDefault(name, missing);
+  }
+
   Object get(Token name) {
-    if (map.containsKey(name.lexeme)) return map.get(name.lexeme);
-    if (enclosing != null) return enclosing.get(name);
+    return lookup(name).map.get(name.lexeme);
+  }
 
-    throw new RuntimeError(name, String.format("Undefined variable '%s'", name.lexeme));
+  Object getAt(int depth, int slot) {
+    return ancestor(depth).slots[slot];
   }
 
   public void assign(Token name, Object value) {
-    if (map.containsKey(name.lexeme)) {
-      map.put(name.lexeme, value);
-      return;
-    }
-    if (enclosing != null) {
-      enclosing.assign(name, value);
-      return;
+    lookup(name).map.put(name.lexeme, value);
+  }
+
+  // the innermost environment that defines the name
+  private Environment lookup(Token name) {
+    int depth = 0;
+    for (Environment environment = this; environment != null; environment = environment.enclosing) {
+      if (environment.map.containsKey(name.lexeme)) {
+        if (LoxMetrics.ENABLED) LoxMetrics.lookup(depth);
+        return environment;
+      }
+      depth++;
     }
     throw new RuntimeError(name, String.format("Undefined variable '%s'", name.lexeme));
   }
+
+  void assignAt(int depth, int slot, Object value) {
+    ancestor(depth).slots[slot] = value;
+  }
+
+  private Environment ancestor(int depth) {
+    if (LoxMetrics.ENABLED) LoxMetrics.lookup(depth);
+    Environment environment = this;
+    for (int i = 0; i < depth; i++) {
+      environment = environment.enclosing;
+    }
+    return environment;
+  }
 }
@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Where the scanner, the parser and the interpreter send the errors they find. The command line
+ * prints them once a run is done, see {@link Lox#CONSOLE}, a {@link Session} keeps its own in
+ * {@link Diagnostics}.
+ */
+interface ErrorReporter {
+  void report(Diagnostic diagnostic);
+
+  /** A syntax error the way the command line prints it. */
+  static String format(int line, String where, String message) {
+    return String.format("[line %d] Error:  %s : %s ", line, where, message);
+  }
+
+  /** A runtime error the way the command line prints it. */
+  static String formatRuntime(int line, String message) {
+    return message + " [line " + line + "]";
+  }
+}
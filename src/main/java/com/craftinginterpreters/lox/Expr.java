@@ -15,8 +15,15 @@ abstract class Expr {
   }
   static class Assign extends Expr {
     Assign(Token name, Expr value){
+      this(name, value, -1, 0, null);
+    }
+
+    Assign(Token name, Expr value, int depth, int slot, Double step){
       this.name = name;
       this.value = value;
+      this.depth = depth;
+      this.slot = slot;
+      this.step = step;
     }
 
     @Override
@@ -25,6 +32,9 @@ abstract class Expr {
     }
     final Token name;
     final  Expr value;
+    final int depth;
+    final int slot;
+    final Double step;
   }
   static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right){
@@ -40,6 +50,7 @@ abstract class Expr {
     final Expr left;
     final  Token operator;
     final  Expr right;
+    int specialized;
   }
   static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments){
@@ -90,6 +101,7 @@ abstract class Expr {
     }
     final Token operator;
     final  Expr right;
+    int specialized;
   }
   static class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right){
@@ -108,7 +120,13 @@ abstract class Expr {
   }
   static class Variable extends Expr {
     Variable(Token name){
+      this(name, -1, 0);
+    }
+
+    Variable(Token name, int depth, int slot){
       this.name = name;
+      this.depth = depth;
+      this.slot = slot;
     }
 
     @Override
@@ -116,6 +134,8 @@ abstract class Expr {
       return visitor.visitVariableExpr(this);
     }
     final Token name;
+    final int depth;
+    final int slot;
   }
 
     abstract <R> R accept(Visitor<R> visitor);
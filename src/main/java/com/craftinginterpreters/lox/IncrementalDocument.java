@@ -0,0 +1,662 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A Lox source that is edited in place, for the REPL and for editors that want the syntax errors
+ * of a file after every keystroke. It keeps the tokens and the statement of every top level
+ * declaration.
+ *
+ * <p>An edit is scanned again from the last token that starts before it, lexeme by lexeme, until
+ * the scanner lands on the start of a token it had before the edit. The scanner has no state
+ * between lexemes but its line, so from there on the old tokens are kept. Then the declarations
+ * are parsed again from the one that token was in, until one ends where an old one began after
+ * the edit; that one and the rest keep their statements. So an edit costs about the tokens and
+ * the declarations it touches, however big the file is. The declarations after it only have
+ * their offsets moved.
+ *
+ * <p>Token lines are final, so when an edit adds or removes lines the declarations after it are
+ * not rebuilt right away. They remember how many lines they moved, which errors take into account,
+ * and {@link #statements} parses them again from their tokens before the program runs.
+ */
+final class IncrementalDocument {
+  private static final class Declaration {
+    // of its first token in the text
+    int offset;
+    // lines its tokens, statement and errors are behind where the declaration is now
+    int shift;
+    List<Token> tokens;
+    // of every token, from offset
+    int[] starts;
+    // null after a syntax error
+    Stmt statement;
+    List<Problem> problems;
+
+    Declaration(int offset, List<Token> tokens, int[] starts, Stmt statement) {
+      this.offset = offset;
+      this.tokens = tokens;
+      this.starts = starts;
+      this.statement = statement;
+      this.problems = new ArrayList<>();
+    }
+  }
+
+  /** A syntax error, scan errors keep where they are so a later edit knows if it rescanned them. */
+  private static final class Problem {
+    // errors of the parser have no offset
+    static final int PARSER = Integer.MIN_VALUE;
+    // from the declaration's offset, negative before its first token
+    final int offset;
+    // on a line behind by the declaration's shift, like its tokens
+    final Diagnostic diagnostic;
+
+    Problem(int offset, Diagnostic diagnostic) {
+      this.offset = offset;
+      this.diagnostic = diagnostic;
+    }
+
+    boolean scanned() {
+      return offset != PARSER;
+    }
+
+    Problem moved(int offset, int lines, int columns) {
+      return new Problem(
+          offset,
+          diagnostic.moved(
+              diagnostic.line() + lines, diagnostic.column() + columns, diagnostic.where()));
+    }
+  }
+
+  private static final Comparator<Problem> BY_OFFSET = Comparator.comparingInt(p -> p.offset);
+
+  private final Text text = new Text();
+  private final List<Declaration> declarations = new ArrayList<>();
+  // the declarations from moved on are movedBy characters and movedLines lines further on than
+  // their fields say, so an edit moves all the ones after it at once, see moveBoundary
+  private int moved = 0;
+  private int movedBy = 0;
+  private int movedLines = 0;
+  // errors of scanning text with no declaration to hold them
+  private List<Problem> stray = Collections.emptyList();
+  // line the text ends on
+  private int endLine = 1;
+  // declarations, and the text and lines up to the end of them, no edit changes, see freeze
+  private int frozen = 0;
+  private int frozenOffset = 0;
+  private int frozenLine = 1;
+
+  IncrementalDocument() {}
+
+  IncrementalDocument(String text) {
+    edit(0, 0, text);
+  }
+
+  String text() {
+    return text.toString();
+  }
+
+  int length() {
+    return text.length();
+  }
+
+  /**
+   * Replaces removed characters at offset with inserted and returns the statements of the
+   * declarations that were parsed again, in order, null for one with a syntax error.
+   */
+  List<Stmt> edit(int offset, int removed, String inserted) {
+    Objects.checkFromIndexSize(offset, removed, text.length());
+    if (offset < frozenOffset) {
+      throw new IllegalArgumentException("Edit at " + offset + " is before " + frozenOffset);
+    }
+    long started = LoxMetrics.start();
+    int end = offset + removed;
+    int delta = inserted.length() - removed;
+
+    // the scan starts again at the first token that looked at the edited text, the last one
+    // starting before it or one that ends right before it, a number looks two characters ahead
+    int first = frozen;
+    int at = find(offset);
+    int kept = 0;
+    int restart = frozenOffset;
+    int line = frozenLine;
+    if (at >= 0) {
+      kept = lastBefore(declarations.get(at), offset - offset(at));
+      for (; ; ) {
+        if (kept == 0 && at == frozen) break;
+        int previous = kept > 0 ? at : at - 1;
+        int last = kept > 0 ? kept - 1 : declarations.get(previous).tokens.size() - 1;
+        if (end(previous, last) + 1 < offset) break;
+        at = previous;
+        kept = last;
+      }
+      restart = start(at, kept);
+      line = startLine(at, kept);
+      // a new first token can change the declaration before, an else it takes or where it recovers
+      first = kept == 0 && at > frozen ? at - 1 : at;
+    }
+    text.replace(offset, removed, inserted);
+
+    // the old tokens after the edit, the scan is back in step once it lands on one of them
+    int resumeAt = at >= 0 ? at : frozen;
+    int resumeToken = at >= 0 ? kept + 1 : 0;
+    Scanner scanner = new Scanner(text, restart, text.length(), line);
+    List<Token> scanned = scanner.tokens();
+    int[] scannedStarts = new int[16];
+    List<Problem> problems = new ArrayList<>();
+    int position = restart;
+    boolean resynced = false;
+    for (; ; ) {
+      while (resumeAt < declarations.size()) {
+        if (resumeToken == declarations.get(resumeAt).tokens.size()) {
+          resumeAt++;
+          resumeToken = 0;
+          continue;
+        }
+        int old = start(resumeAt, resumeToken);
+        if (old >= end && old + delta >= position) break;
+        resumeToken++;
+      }
+      if (resumeAt < declarations.size() && start(resumeAt, resumeToken) + delta == position) {
+        resynced = true;
+        break;
+      }
+      if (position >= text.length()) break;
+      int tokens = scanned.size();
+      int errors = scanner.errors().size();
+      int lexeme = position;
+      position = scanner.scanLexeme();
+      if (scanned.size() > tokens) {
+        if (tokens == scannedStarts.length) {
+          scannedStarts = Arrays.copyOf(scannedStarts, tokens * 2);
+        }
+        scannedStarts[tokens] = lexeme;
+      }
+      List<Scanner.DeferredError> found = scanner.errors();
+      for (Scanner.DeferredError error : found.subList(errors, found.size())) {
+        problems.add(new Problem(lexeme, Diagnostic.at(error.line, error.column, error.message)));
+      }
+    }
+    // old offset the rescanned text ends at, how many lines the text after it moved, and how many
+    // columns what is left of the line the rescan ended on moved
+    int rescanned = Integer.MAX_VALUE;
+    int lines = 0;
+    int columnLine = 0;
+    int columns = 0;
+    if (resynced) {
+      rescanned = start(resumeAt, resumeToken);
+      columnLine = startLine(resumeAt, resumeToken);
+      lines = scanner.line() - columnLine;
+      columns = scanner.column() - declarations.get(resumeAt).tokens.get(resumeToken).column;
+      endLine += lines;
+    } else {
+      endLine = scanner.line();
+    }
+    if (LoxMetrics.ENABLED) LoxMetrics.scanned(scanned.size(), started);
+
+    // parses declarations until one ends where an old one after the edit begins
+    long parsing = LoxMetrics.start();
+    Tokens stream =
+        new Tokens(
+            first,
+            at,
+            kept,
+            scanned,
+            scannedStarts,
+            resynced ? resumeAt : declarations.size(),
+            resumeToken,
+            delta,
+            lines,
+            columnLine,
+            columns);
+    List<Problem> parseProblems = new ArrayList<>();
+    Parser parser = new Parser(stream, collect(parseProblems));
+    List<Declaration> parsed = new ArrayList<>();
+    int stop = declarations.size();
+    for (; ; ) {
+      int from = stream.pulled - 1;
+      if (stream.boundaries[from] >= 0) {
+        stop = stream.boundaries[from];
+        break;
+      }
+      if (parser.isAtEnd()) break;
+      Stmt statement = parser.declaration();
+      Declaration declaration = stream.declaration(from, stream.pulled - 1, statement);
+      declaration.problems.addAll(parseProblems);
+      parseProblems.clear();
+      parsed.add(declaration);
+    }
+
+    // scan errors outside the rescanned text stay, in new offsets, the rest were found again
+    for (int i = first; i < stop; i++) {
+      for (Problem problem : declarations.get(i).problems) {
+        if (!problem.scanned()) continue;
+        int old = offset(i) + problem.offset;
+        if (old < restart) {
+          problems.add(problem.moved(old, shift(i), 0));
+        } else if (old >= rescanned) {
+          boolean onLine = problem.diagnostic.line() + shift(i) == columnLine;
+          problems.add(problem.moved(old + delta, shift(i) + lines, onLine ? columns : 0));
+        }
+      }
+    }
+    // the ones from stop on move with the text after the edit
+    moveBoundary(first);
+    // set in place, so the list only shifts what follows when the count changes
+    int same = Math.min(parsed.size(), stop - first);
+    for (int i = 0; i < same; i++) declarations.set(first + i, parsed.get(i));
+    if (first + same < stop) declarations.subList(first + same, stop).clear();
+    if (same < parsed.size()) {
+      declarations.addAll(first + same, parsed.subList(same, parsed.size()));
+    }
+    moved = first + parsed.size();
+    movedBy += delta;
+    movedLines += lines;
+    stop = moved;
+    Declaration next = stop < declarations.size() ? declarations.get(stop) : null;
+    if (next != null) {
+      // the text before its first token may have been rescanned, its errors are among problems
+      List<Problem> remaining = new ArrayList<>();
+      for (Problem problem : next.problems) {
+        int old = offset(stop) - delta + problem.offset;
+        if (!problem.scanned() || old < restart || old >= rescanned) remaining.add(problem);
+      }
+      next.problems = remaining;
+    }
+    // the declarations with tokens or errors on the line the rescan ended on are built again right
+    // away, so those are in the columns they moved to
+    for (int i = stop; columns != 0 && i < declarations.size(); i++) {
+      realign(i, columnLine + lines, columns);
+      Declaration declaration = declarations.get(i);
+      if (declaration.tokens.get(declaration.tokens.size() - 1).line > columnLine + lines) break;
+    }
+    // an error goes with the declaration after it, or the last one when it is after all of them
+    stray = new ArrayList<>();
+    for (Problem problem : problems) {
+      int owner = next != null ? stop : -1;
+      for (int i = first; i < stop; i++) {
+        if (end(i, declarations.get(i).tokens.size() - 1) > problem.offset) {
+          owner = i;
+          break;
+        }
+      }
+      if (owner < 0 && !parsed.isEmpty()) owner = stop - 1;
+      if (owner < 0) {
+        stray.add(problem);
+      } else {
+        declarations
+            .get(owner)
+            .problems
+            .add(problem.moved(problem.offset - offset(owner), -shift(owner), 0));
+      }
+    }
+    if (LoxMetrics.ENABLED) {
+      LoxMetrics.PARSED.add(parsed.size());
+      LoxMetrics.PARSE_NANOS.add(System.nanoTime() - parsing);
+    }
+
+    List<Stmt> statements = new ArrayList<>(parsed.size());
+    for (Declaration declaration : parsed) statements.add(declaration.statement);
+    return statements;
+  }
+
+  /**
+   * Makes the text so far final, later edits go after it and never parse its declarations again.
+   * The REPL freezes what it has run.
+   */
+  void freeze() {
+    frozen = declarations.size();
+    frozenOffset = text.length();
+    frozenLine = endLine;
+  }
+
+  boolean hasErrors() {
+    if (!stray.isEmpty()) return true;
+    for (Declaration declaration : declarations) {
+      if (!declaration.problems.isEmpty()) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sends the syntax errors of the text to reporter in the order scanning the whole text and then
+   * parsing it finds them: the scan errors by offset, then the parse errors declaration by
+   * declaration.
+   */
+  void report(ErrorReporter reporter) {
+    // a declaration holds the scan errors between the one before it and its end, but an edit adds
+    // them out of order
+    List<Problem> scanned = new ArrayList<>();
+    for (int i = 0; i < declarations.size(); i++) {
+      scanned.clear();
+      for (Problem problem : declarations.get(i).problems) {
+        if (problem.scanned()) scanned.add(problem);
+      }
+      scanned.sort(BY_OFFSET);
+      for (Problem problem : scanned) reporter.report(problem.moved(0, shift(i), 0).diagnostic);
+    }
+    scanned.clear();
+    scanned.addAll(stray);
+    scanned.sort(BY_OFFSET);
+    for (Problem problem : scanned) reporter.report(problem.diagnostic);
+    for (int i = 0; i < declarations.size(); i++) {
+      for (Problem problem : declarations.get(i).problems) {
+        if (!problem.scanned()) reporter.report(problem.moved(0, shift(i), 0).diagnostic);
+      }
+    }
+  }
+
+  /**
+   * The statements of the whole text, null when it has syntax errors. Declarations that moved to
+   * other lines are parsed again first, so errors at runtime are on the right line.
+   */
+  List<Stmt> statements() {
+    if (hasErrors()) return null;
+    List<Stmt> statements = new ArrayList<>(declarations.size());
+    for (int i = 0; i < declarations.size(); i++) {
+      if (shift(i) != 0) realign(i, 0, 0);
+      statements.add(declarations.get(i).statement);
+    }
+    return statements;
+  }
+
+  // parses a declaration again from its tokens moved to where they are now, those on line also
+  // moved by columns
+  private void realign(int index, int line, int columns) {
+    Declaration declaration = declarations.get(index);
+    int lines = shift(index);
+    List<Token> tokens = new ArrayList<>(declaration.tokens.size() + 1);
+    for (int i = 0; i < declaration.tokens.size(); i++) {
+      boolean onLine = columns != 0 && startLine(index, i) == line;
+      tokens.add(moved(declaration.tokens.get(i), lines, onLine ? columns : 0));
+    }
+    // the parser stopped at the next one's first token, an error can be at that one
+    if (index + 1 < declarations.size()) {
+      boolean onLine = columns != 0 && startLine(index + 1, 0) == line;
+      Token next = declarations.get(index + 1).tokens.get(0);
+      tokens.add(moved(next, shift(index + 1), onLine ? columns : 0));
+    } else {
+      tokens.add(eof());
+    }
+    List<Problem> problems = new ArrayList<>();
+    declaration.statement = new Parser(tokens, collect(problems)).declaration();
+    tokens.remove(tokens.size() - 1);
+    declaration.tokens = tokens;
+    declaration.shift -= lines;
+    for (Problem problem : declaration.problems) {
+      if (problem.scanned()) {
+        boolean onLine = problem.diagnostic.line() + lines == line;
+        problems.add(problem.moved(problem.offset, lines, onLine ? columns : 0));
+      }
+    }
+    declaration.problems = problems;
+  }
+
+  // on the line and in the column the text ends at
+  private Token eof() {
+    int lineStart = text.length();
+    while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') lineStart--;
+    return new Token(TokenType.EOF, "", null, endLine, text.length() - lineStart + 1);
+  }
+
+  private static Token moved(Token token, int lines, int columns) {
+    if (lines == 0 && columns == 0) return token;
+    return new Token(
+        token.type, token.lexeme, token.literal, token.line + lines, token.column + columns);
+  }
+
+  private static ErrorReporter collect(List<Problem> problems) {
+    return diagnostic -> problems.add(new Problem(Problem.PARSER, diagnostic));
+  }
+
+  private int offset(int index) {
+    int offset = declarations.get(index).offset;
+    return index < moved ? offset : offset + movedBy;
+  }
+
+  private int shift(int index) {
+    int shift = declarations.get(index).shift;
+    return index < moved ? shift : shift + movedLines;
+  }
+
+  // where a token of a declaration starts and ends
+  private int start(int index, int token) {
+    return offset(index) + declarations.get(index).starts[token];
+  }
+
+  private int end(int index, int token) {
+    return start(index, token) + declarations.get(index).tokens.get(token).lexeme.length();
+  }
+
+  // the line a token starts on, a string token is on the line it ends on
+  private int startLine(int index, int token) {
+    Token start = declarations.get(index).tokens.get(token);
+    return start.line + shift(index) - newlines(start.lexeme);
+  }
+
+  // makes the fields of the declarations before target hold where they are, and those after not
+  private void moveBoundary(int target) {
+    for (; moved < target; moved++) {
+      declarations.get(moved).offset += movedBy;
+      declarations.get(moved).shift += movedLines;
+    }
+    for (; moved > target; moved--) {
+      declarations.get(moved - 1).offset -= movedBy;
+      declarations.get(moved - 1).shift -= movedLines;
+    }
+  }
+
+  // the last declaration not frozen that starts before offset, or -1
+  private int find(int offset) {
+    int low = frozen;
+    int high = declarations.size() - 1;
+    int found = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (offset(middle) < offset) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return found;
+  }
+
+  // the last token of the declaration that starts before offset, from the declaration's offset
+  private static int lastBefore(Declaration declaration, int offset) {
+    int low = 0;
+    int high = declaration.starts.length - 1;
+    int found = 0;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (declaration.starts[middle] < offset) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return found;
+  }
+
+  private static int newlines(String lexeme) {
+    int count = 0;
+    for (int i = 0; i < lexeme.length(); i++) {
+      if (lexeme.charAt(i) == '\n') count++;
+    }
+    return count;
+  }
+
+  /** The text, with a gap where the last edit was, so typing in one place copies nothing. */
+  private static final class Text implements CharSequence {
+    private char[] chars = new char[64];
+    private int gapStart = 0;
+    private int gapEnd = chars.length;
+
+    void replace(int offset, int removed, String inserted) {
+      moveGap(offset);
+      gapEnd += removed;
+      if (inserted.length() > gapEnd - gapStart) grow(inserted.length());
+      inserted.getChars(0, inserted.length(), chars, gapStart);
+      gapStart += inserted.length();
+    }
+
+    private void moveGap(int offset) {
+      if (offset < gapStart) {
+        int count = gapStart - offset;
+        System.arraycopy(chars, offset, chars, gapEnd - count, count);
+        gapStart -= count;
+        gapEnd -= count;
+      } else if (offset > gapStart) {
+        int count = offset - gapStart;
+        System.arraycopy(chars, gapEnd, chars, gapStart, count);
+        gapStart += count;
+        gapEnd += count;
+      }
+    }
+
+    private void grow(int needed) {
+      char[] grown = new char[Math.max(chars.length * 2, length() + needed + 64)];
+      int tail = chars.length - gapEnd;
+      System.arraycopy(chars, 0, grown, 0, gapStart);
+      System.arraycopy(chars, gapEnd, grown, grown.length - tail, tail);
+      gapEnd = grown.length - tail;
+      chars = grown;
+    }
+
+    @Override
+    public int length() {
+      return chars.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public char charAt(int index) {
+      return index < gapStart ? chars[index] : chars[index + gapEnd - gapStart];
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+      if (end <= gapStart) return new String(chars, start, end - start);
+      if (start >= gapStart) return new String(chars, start + gapEnd - gapStart, end - start);
+      return new StringBuilder(end - start)
+          .append(chars, start, gapStart - start)
+          .append(chars, gapEnd, end - gapStart)
+          .toString();
+    }
+
+    @Override
+    public String toString() {
+      return subSequence(0, length());
+    }
+  }
+
+  /**
+   * The tokens the parser reads: the old ones from the first declaration parsed again up to where
+   * the scan started, the scanned ones and then the old ones from where the scan got back in step,
+   * on the lines they are on now. Remembers every token it handed out and where it starts.
+   */
+  private final class Tokens implements TokenSource {
+    // old tokens up to declaration at, token kept, and from declaration resume, token resumeToken
+    private final int at;
+    private final int kept;
+    private final List<Token> scanned;
+    private final int[] scannedStarts;
+    private final int delta;
+    private final int lines;
+    private final int columnLine;
+    private int columns;
+    private int declaration;
+    private int token = 0;
+    private int resume;
+    private int resumeToken;
+    private int next = 0;
+
+    Token[] pulledTokens = new Token[16];
+    int[] starts = new int[16];
+    // the old declaration a token is the first of, -1 for other tokens
+    int[] boundaries = new int[16];
+    int pulled = 0;
+
+    Tokens(
+        int first,
+        int at,
+        int kept,
+        List<Token> scanned,
+        int[] scannedStarts,
+        int resume,
+        int resumeToken,
+        int delta,
+        int lines,
+        int columnLine,
+        int columns) {
+      this.declaration = first;
+      this.at = at;
+      this.kept = kept;
+      this.scanned = scanned;
+      this.scannedStarts = scannedStarts;
+      this.resume = resume;
+      this.resumeToken = resumeToken;
+      this.delta = delta;
+      this.lines = lines;
+      this.columnLine = columnLine;
+      this.columns = columns;
+    }
+
+    @Override
+    public Token nextToken() {
+      if (pulled == pulledTokens.length) {
+        pulledTokens = Arrays.copyOf(pulledTokens, pulled * 2);
+        starts = Arrays.copyOf(starts, pulled * 2);
+        boundaries = Arrays.copyOf(boundaries, pulled * 2);
+      }
+      Token result;
+      int start;
+      int boundary = -1;
+      if (declaration < at || declaration == at && token < kept) {
+        Declaration old = declarations.get(declaration);
+        result = moved(old.tokens.get(token), shift(declaration), 0);
+        start = start(declaration, token);
+        if (++token == old.tokens.size()) {
+          declaration++;
+          token = 0;
+        }
+      } else if (next < scanned.size()) {
+        result = scanned.get(next);
+        start = scannedStarts[next];
+        next++;
+      } else if (resume < declarations.size()) {
+        Declaration old = declarations.get(resume);
+        // the rest of the line the rescan ended on moved along it
+        if (columns != 0 && startLine(resume, resumeToken) != columnLine) columns = 0;
+        result = moved(old.tokens.get(resumeToken), shift(resume) + lines, columns);
+        start = start(resume, resumeToken) + delta;
+        if (resumeToken == 0) boundary = resume;
+        if (++resumeToken == old.tokens.size()) {
+          resume++;
+          resumeToken = 0;
+        }
+      } else {
+        result = eof();
+        start = text.length();
+      }
+      pulledTokens[pulled] = result;
+      starts[pulled] = start;
+      boundaries[pulled] = boundary;
+      pulled++;
+      return result;
+    }
+
+    Declaration declaration(int from, int to, Stmt statement) {
+      int offset = starts[from];
+      int[] relative = new int[to - from];
+      for (int i = from; i < to; i++) relative[i - from] = starts[i] - offset;
+      List<Token> tokens = new ArrayList<>(Arrays.asList(pulledTokens).subList(from, to));
+      return new Declaration(offset, tokens, relative, statement);
+    }
+  }
+}
@@ -1,20 +1,65 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
+    if (expr.step != null && expr.depth >= 0) {
+      // induction variable of a for loop, bump it in place while it holds a number
+      Object current = env.getAt(expr.depth, expr.slot);
+      if (current instanceof Double) {
+        Object value = box((double) current + expr.step);
+        env.assignAt(expr.depth, expr.slot, value);
+        return value;
+      }
+    }
     Object value = evaluate(expr.value);
-    env.assign(expr.name, value);
+    if (expr.depth < 0) {
+      globals.assign(expr.name, value);
+    } else {
+      env.assignAt(expr.depth, expr.slot, value);
+    }
     return value;
   }
   final Environment globals = new Environment(null);
 
   private Environment env = globals;
+  private final OutputSink out;
+  private final ErrorReporter reporter;
+  // the module the loader found for each import, and the paths of the modules that already ran
+  private final Map<Stmt.Import, ModuleLoader.Module> modules = new IdentityHashMap<>();
+  private final Set<String> imported = new HashSet<>();
 
   public Interpreter() {
+    this(ChannelSink.stdout());
+  }
+
+  public Interpreter(OutputSink out) {
+    this(out, Lox.CONSOLE);
+  }
+
+  Interpreter(OutputSink out, ErrorReporter reporter) {
+    this.out = out;
+    this.reporter = reporter;
+    defineNatives(globals);
+  }
+
+  public OutputSink output() {
+    return out;
+  }
+
+  /** Makes loaded modules available to the imports of the programs this interpreter runs. */
+  void modules(Map<Stmt.Import, ModuleLoader.Module> modules) {
+    this.modules.putAll(modules);
+  }
+
+  static void defineNatives(Environment globals) {
     globals.define(
         "clock",
         new LoxCallable() {
@@ -39,42 +84,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   public Object visitBinaryExpr(Expr.Binary expr) {
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
-    switch (expr.operator.type) {
+    return binary(expr.operator, left, right);
+  }
+
+  static Object binary(Token operator, Object left, Object right) {
+    switch (operator.type) {
       case MINUS:
-        checkNumberOperand(expr.operator, right);
-        return (double) left - (double) right;
+        checkNumberOperand(operator, right);
+        return box((double) left - (double) right);
       case SLASH:
-        checkNumberOperand(expr.operator, left, right);
-        checkZeroDivision(expr.operator, right);
-        return (double) left / (double) right;
+        checkNumberOperand(operator, left, right);
+        checkZeroDivision(operator, right);
+        return box((double) left / (double) right);
       case STAR:
-        checkNumberOperand(expr.operator, left, right);
-        return (double) left * (double) right;
+        checkNumberOperand(operator, left, right);
+        return box((double) left * (double) right);
       case PLUS:
         if (left instanceof Double && right instanceof Double) {
-          return (Double) left + (Double) right;
+          return box((Double) left + (Double) right);
         }
         if (left instanceof String || right instanceof String) {
-          return stringify(left) + stringify(right);
+          return concat(left, right);
         }
         break;
       case GREATER:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left > (double) right;
       case GREATER_EQUAL:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left >= (double) right;
       case LESS:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left < (double) right;
       case LESS_EQUAL:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return (double) left <= (double) right;
       case BANG_EQUAL:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return !isEqual(left, right);
       case EQUAL_EQUAL:
-        checkNumberOperand(expr.operator, left, right);
+        checkNumberOperand(operator, left, right);
         return isEqual(left, right);
     }
     return null;
@@ -100,19 +149,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     return function.call(this, arguments);
   }
 
-  private void checkZeroDivision(Token operator, Object right) {
+  private static void checkZeroDivision(Token operator, Object right) {
     Double val = (Double) right;
     if (val.compareTo(0.0) == 0) throw new RuntimeError(operator, "Division by zero not allowed");
   }
 
-  private void checkNumberOperand(Token operator, Object... right) {
+  private static void checkNumberOperand(Token operator, Object... right) {
     for (Object val : right) {
       if (val instanceof Double) continue;
       throw new RuntimeError(operator, "Operator must be a number");
     }
   }
 
-  private boolean isEqual(Object left, Object right) {
+  static boolean isEqual(Object left, Object right) {
     if (left == null && right == null) return true;
     if (left == null) return false;
     return left.equals(right);
@@ -131,9 +180,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
     Object right = evaluate(expr.right);
-    switch (expr.operator.type) {
+    return unary(expr.operator, right);
+  }
+
+  static Object unary(Token operator, Object right) {
+    switch (operator.type) {
       case MINUS:
-        return -(double) right;
+        return box(-(double) right);
       case BANG:
         return !isTruthy(right);
     }
@@ -142,56 +195,105 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    Object val = env.get(expr.name);
+    Object val = expr.depth < 0 ? globals.get(expr.name) : env.getAt(expr.depth, expr.slot);
     if (val == null)
       throw new RuntimeError(
           expr.name, String.format("Variable %s might not be initialized", expr.name.lexeme));
     return val;
   }
 
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null) return false;
     if (object instanceof Boolean) return (boolean) object;
     return true;
   }
 
-  private Object evaluate(Expr expr) {
+  Object evaluate(Expr expr) {
     return expr.accept(this);
   }
 
   void interpret(List<Stmt> statements) {
+    long started = LoxMetrics.start();
     try {
       for (Stmt stmt : statements) {
         execute(stmt);
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      reporter.report(Diagnostic.of(error));
+    } finally {
+      if (LoxMetrics.ENABLED) LoxMetrics.INTERPRET_NANOS.add(System.nanoTime() - started);
     }
   }
 
-  private void execute(Stmt stmt) {
+  void execute(Stmt stmt) {
+    if (LoxMetrics.ENABLED) LoxMetrics.STATEMENTS.increment();
+    if (LoxEvents.ENABLED) {
+      executeRecorded(stmt);
+      return;
+    }
     stmt.accept(this);
   }
 
+  // only statements over the threshold get their fields filled in and are committed
+  private void executeRecorded(Stmt stmt) {
+    LoxEvents.SlowStatement event = new LoxEvents.SlowStatement();
+    event.begin();
+    stmt.accept(this);
+    event.end();
+    if (event.shouldCommit()) {
+      event.line = stmt.line;
+      event.statement = stmt.getClass().getSimpleName().toLowerCase();
+      event.commit();
+    }
+  }
+
   void interpret(Expr expression) {
     try {
       Object value = evaluate(expression);
-      System.out.println(stringify(value));
+      print(out, value);
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      reporter.report(Diagnostic.of(error));
     }
   }
 
-  private String stringify(Object value) {
+  static String stringify(Object value) {
     if (value == null) return "nil";
+    if (value instanceof Double) return NumberFormatter.toString((double) value);
+    return value.toString();
+  }
+
+  // every arithmetic result goes through here, for the boxed numbers count
+  static Double box(double value) {
+    if (LoxMetrics.ENABLED) LoxMetrics.BOXED.increment();
+    return value;
+  }
+
+  // a number goes to the sink without becoming a string first
+  static void print(OutputSink out, Object value) {
     if (value instanceof Double) {
-      String text = value.toString();
-      if (text.endsWith(".0")) {
-        text = text.substring(0, text.length() - 2);
-      }
-      return text;
+      out.println((double) value);
+    } else {
+      out.println(stringify(value));
+    }
+  }
+
+  static String concat(Object left, Object right) {
+    if (LoxMetrics.ENABLED) LoxMetrics.CONCATENATIONS.increment();
+    if (!(left instanceof Double) && !(right instanceof Double)) {
+      return stringify(left) + stringify(right);
+    }
+    StringBuilder builder = new StringBuilder(32);
+    append(builder, left);
+    append(builder, right);
+    return builder.toString();
+  }
+
+  private static void append(StringBuilder builder, Object value) {
+    if (value instanceof Double) {
+      NumberFormatter.append(builder, (double) value);
+    } else {
+      builder.append(stringify(value));
     }
-    return value.toString();
   }
 
   @Override
@@ -207,7 +309,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
   @Override
   public Object visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(env));
+    executeBlock(stmt.statements, new Environment(env, stmt.slots));
+    return null;
+  }
+
+  @Override
+  public Object visitLazyStmt(Stmt.Lazy stmt) {
+    Stmt.Block body = Lox.materialize(stmt);
+    if (body == null) throw new RuntimeError(stmt.brace, "Syntax error in block");
+    execute(body);
     return null;
   }
 
@@ -229,7 +339,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   @Override
   public Object visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    print(out, value);
     return null;
   }
 
@@ -239,7 +349,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     if (stmt.initializer != null) {
       value = evaluate(stmt.initializer);
     }
-    env.define(stmt.name.lexeme, value);
+    if (stmt.slot < 0) {
+      env.define(stmt.name.lexeme, value);
+    } else {
+      env.defineAt(stmt.slot, value);
+    }
     return null;
   }
 
@@ -247,7 +361,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
   public Object visitIfStmt(Stmt.If stmt) {
     if (isTruthy(evaluate(stmt.condition))) {
       execute(stmt.thenBranch);
-    } else {
+    } else if (stmt.elseBranch != null) {
       execute(stmt.elseBranch);
     }
     return null;
@@ -260,4 +374,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     }
     return null;
   }
+
+  // a module runs once, in the globals, the first time any import of it is reached
+  @Override
+  public Object visitImportStmt(Stmt.Import stmt) {
+    ModuleLoader.Module module = modules.get(stmt);
+    if (module == null) throw new RuntimeError(stmt.path, "Module was not loaded");
+    if (!imported.add(module.path)) return null;
+    executeBlock(module.statements, globals);
+    return null;
+  }
 }
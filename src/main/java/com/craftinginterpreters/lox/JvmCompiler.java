@@ -0,0 +1,422 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates a parsed program into a {@link JvmRuntime.Program} subclass, writing its class file
+ * directly, and loads it through a fresh {@link LoxClassLoader}, so HotSpot can profile and JIT the
+ * Lox program itself. Lox locals become JVM locals, globals stay in the interpreter's environment.
+ * Top level statements are packed into static methods of up to 8000 bytes of code, the largest
+ * HotSpot still compiles, and a statement bigger than that gets a method of its own.
+ */
+class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private static final String PACKAGE = "com/craftinginterpreters/lox/generated/";
+  private static final String RUNTIME = internalName(JvmRuntime.class);
+  private static final String PROGRAM = internalName(JvmRuntime.Program.class);
+  private static final String OBJECT = "Ljava/lang/Object;";
+  private static final String TOKEN = "L" + internalName(Token.class) + ";";
+  private static final String PARAMETERS = "(L" + RUNTIME + ";[" + TOKEN + "[" + OBJECT + ")V";
+  private static final String BINARY = "(" + TOKEN + OBJECT + OBJECT + ")" + OBJECT;
+  private static final int METHOD_SIZE = 8000;
+  // of the code and of the locals of one method
+  private static final int LIMIT = 0xffff;
+  private static final int METHODS_PER_GROUP = 1024;
+  // a statement method takes the runtime, the tokens and the constants, in that order
+  private static final int RT = 0;
+  private static final int TOKENS = 1;
+  private static final int CONSTANTS = 2;
+  private static final AtomicInteger programs = new AtomicInteger();
+
+  private final List<Token> tokens = new ArrayList<>();
+  private final List<Object> constants = new ArrayList<>();
+  private final List<Map<String, Integer>> scopes = new ArrayList<>();
+  private ClassFile file;
+  private ClassFile.Code code;
+  private int locals = 0;
+
+  /** A loaded program together with the tables its code indexes into. */
+  static class Compiled {
+    private final JvmRuntime.Program program;
+    private final Token[] tokens;
+    private final Object[] constants;
+
+    private Compiled(JvmRuntime.Program program, Token[] tokens, Object[] constants) {
+      this.program = program;
+      this.tokens = tokens;
+      this.constants = constants;
+    }
+
+    void run(JvmRuntime runtime) {
+      program.run(runtime, tokens, constants);
+    }
+  }
+
+  /**
+   * Returns the loaded program, or null when a statement does not fit in a method or the class
+   * needs more constants than a class file can hold.
+   */
+  Compiled compile(List<Stmt> statements) {
+    String className = PACKAGE + "LoxScript" + programs.getAndIncrement();
+    byte[] bytes = generate(className, statements);
+    if (bytes == null) return null;
+    String name = className.replace('/', '.');
+    Map<String, byte[]> classes = new HashMap<>();
+    classes.put(name, bytes);
+    try {
+      Class<?> type = new LoxClassLoader(classes).loadClass(name);
+      JvmRuntime.Program program =
+          (JvmRuntime.Program) type.getDeclaredConstructor().newInstance();
+      return new Compiled(program, tokens.toArray(new Token[0]), constants.toArray());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not load " + name, e);
+    }
+  }
+
+  private byte[] generate(String className, List<Stmt> statements) {
+    int access = ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SUPER;
+    file = new ClassFile(access, className, PROGRAM);
+    ClassFile.Code constructor = new ClassFile.Code(file);
+    constructor.load(0);
+    constructor.invoke(ClassFile.INVOKESPECIAL, PROGRAM, "<init>", "()V");
+    constructor.op(ClassFile.RETURN, 0);
+    file.method(ClassFile.ACC_PUBLIC, "<init>", "()V", constructor);
+
+    List<String> methods = new ArrayList<>();
+    ClassFile.Code method = new ClassFile.Code(file);
+    for (Stmt statement : statements) {
+      // nothing outlives a top level statement in its locals, so each one starts over
+      code = new ClassFile.Code(file);
+      locals = CONSTANTS + 1;
+      statement.accept(this);
+      if (!code.fits() || code.length() >= LIMIT || locals > LIMIT) return null;
+      if (method.length() > 0 && method.length() + code.length() > METHOD_SIZE) {
+        methods.add(statements(methods.size(), method));
+        method = new ClassFile.Code(file);
+      }
+      method.append(code);
+    }
+    methods.add(statements(methods.size(), method));
+    while (methods.size() > METHODS_PER_GROUP) {
+      List<String> groups = new ArrayList<>();
+      for (int i = 0; i < methods.size(); i += METHODS_PER_GROUP) {
+        String name = "g" + groups.size() + "_" + methods.size();
+        List<String> group = methods.subList(i, Math.min(methods.size(), i + METHODS_PER_GROUP));
+        file.method(
+            ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC,
+            name,
+            PARAMETERS,
+            calls(className, group, RT));
+        groups.add(name);
+      }
+      methods = groups;
+    }
+    // run is an instance method, its parameters start after this
+    file.method(ClassFile.ACC_PUBLIC, "run", PARAMETERS, calls(className, methods, RT + 1));
+    return file.fits() ? file.toByteArray() : null;
+  }
+
+  private String statements(int index, ClassFile.Code method) {
+    String name = "s" + index;
+    method.op(ClassFile.RETURN, 0);
+    file.method(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, name, PARAMETERS, method);
+    return name;
+  }
+
+  private ClassFile.Code calls(String className, List<String> methods, int first) {
+    ClassFile.Code calls = new ClassFile.Code(file);
+    for (String method : methods) {
+      calls.load(first);
+      calls.load(first + 1);
+      calls.load(first + 2);
+      calls.invoke(ClassFile.INVOKESTATIC, className, method, PARAMETERS);
+    }
+    calls.op(ClassFile.RETURN, 0);
+    return calls;
+  }
+
+  private static String internalName(Class<?> type) {
+    return type.getName().replace('.', '/');
+  }
+
+  private void token(Token token) {
+    tokens.add(token);
+    element(TOKENS, tokens.size() - 1);
+  }
+
+  private void constant(Object value) {
+    constants.add(value);
+    element(CONSTANTS, constants.size() - 1);
+  }
+
+  private void element(int array, int index) {
+    code.load(array);
+    code.pushInt(index);
+    code.op(ClassFile.AALOAD, -1);
+  }
+
+  private void runtime(String method, String descriptor) {
+    code.invoke(ClassFile.INVOKEVIRTUAL, RUNTIME, method, descriptor);
+  }
+
+  // leaves the truth of the value on top of the stack as an int
+  private void truthy(Expr condition) {
+    code.load(RT);
+    generate(condition);
+    runtime("truthy", "(" + OBJECT + ")Z");
+  }
+
+  private Integer local(Token name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Integer local = scopes.get(i).get(name.lexeme);
+      if (local != null) return local;
+    }
+    return null;
+  }
+
+  private void generate(Expr expr) {
+    expr.accept(this);
+  }
+
+  private void generate(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    Integer local = local(expr.name);
+    if (local != null) {
+      generate(expr.value);
+      code.op(ClassFile.DUP, 1);
+      code.store(local);
+      return null;
+    }
+    code.load(RT);
+    token(expr.name);
+    generate(expr.value);
+    runtime("assign", "(" + TOKEN + OBJECT + ")" + OBJECT);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    String method;
+    switch (expr.operator.type) {
+      case PLUS:
+        method = "add";
+        break;
+      case MINUS:
+        method = "subtract";
+        break;
+      case STAR:
+        method = "multiply";
+        break;
+      case SLASH:
+        method = "divide";
+        break;
+      case GREATER:
+        method = "greater";
+        break;
+      case GREATER_EQUAL:
+        method = "greaterEqual";
+        break;
+      case LESS:
+        method = "less";
+        break;
+      case LESS_EQUAL:
+        method = "lessEqual";
+        break;
+      default:
+        method = "binary";
+    }
+    code.load(RT);
+    token(expr.operator);
+    generate(expr.left);
+    generate(expr.right);
+    runtime(method, BINARY);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    code.load(RT);
+    generate(expr.callee);
+    token(expr.paren);
+    code.pushInt(expr.arguments.size());
+    code.newArray("java/lang/Object");
+    for (int i = 0; i < expr.arguments.size(); i++) {
+      code.op(ClassFile.DUP, 1);
+      code.pushInt(i);
+      generate(expr.arguments.get(i));
+      code.op(ClassFile.AASTORE, -3);
+    }
+    runtime("call", "(" + OBJECT + TOKEN + "[" + OBJECT + ")" + OBJECT);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    generate(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      code.op(ClassFile.ACONST_NULL, 1);
+    } else if (expr.value instanceof Boolean) {
+      String name = (boolean) expr.value ? "TRUE" : "FALSE";
+      code.getStatic("java/lang/Boolean", name, "Ljava/lang/Boolean;");
+    } else {
+      constant(expr.value);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    code.load(RT);
+    switch (expr.operator.type) {
+      case MINUS:
+        generate(expr.right);
+        runtime("negate", "(" + OBJECT + ")" + OBJECT);
+        break;
+      case BANG:
+        generate(expr.right);
+        runtime("not", "(" + OBJECT + ")" + OBJECT);
+        break;
+      default:
+        token(expr.operator);
+        generate(expr.right);
+        runtime("unary", "(" + TOKEN + OBJECT + ")" + OBJECT);
+    }
+    return null;
+  }
+
+  // the left value stays on the stack, it is the result unless the right one is needed
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    generate(expr.left);
+    code.op(ClassFile.DUP, 1);
+    code.load(RT);
+    code.op(ClassFile.SWAP, 0);
+    runtime("truthy", "(" + OBJECT + ")Z");
+    int done = code.jump(expr.operator.type == TokenType.OR ? ClassFile.IFNE : ClassFile.IFEQ);
+    code.op(ClassFile.POP, -1);
+    generate(expr.right);
+    code.land(done);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    Integer local = local(expr.name);
+    code.load(RT);
+    if (local != null) {
+      code.load(local);
+      token(expr.name);
+      runtime("local", "(" + OBJECT + TOKEN + ")" + OBJECT);
+    } else {
+      token(expr.name);
+      runtime("get", "(" + TOKEN + ")" + OBJECT);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scopes.add(new HashMap<>());
+    for (Stmt statement : stmt.statements) {
+      generate(statement);
+    }
+    scopes.remove(scopes.size() - 1);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    generate(stmt.expression);
+    code.op(ClassFile.POP, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    code.load(RT);
+    generate(stmt.expression);
+    runtime("print", "(" + OBJECT + ")V");
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (scopes.isEmpty()) {
+      code.load(RT);
+      token(stmt.name);
+      initializer(stmt);
+      runtime("define", "(" + TOKEN + OBJECT + ")V");
+      return null;
+    }
+    initializer(stmt);
+    Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+    Integer local = scope.get(stmt.name.lexeme);
+    if (local == null) {
+      local = locals++;
+      scope.put(stmt.name.lexeme, local);
+    }
+    code.store(local);
+    return null;
+  }
+
+  private void initializer(Stmt.Var stmt) {
+    if (stmt.initializer == null) {
+      code.op(ClassFile.ACONST_NULL, 1);
+    } else {
+      generate(stmt.initializer);
+    }
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    truthy(stmt.condition);
+    int otherwise = code.jump(ClassFile.IFEQ);
+    generate(stmt.thenBranch);
+    if (stmt.elseBranch != null) {
+      int done = code.jump(ClassFile.GOTO);
+      code.land(otherwise);
+      generate(stmt.elseBranch);
+      code.land(done);
+    } else {
+      code.land(otherwise);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int start = code.length();
+    truthy(stmt.condition);
+    int exit = code.jump(ClassFile.IFEQ);
+    generate(stmt.body);
+    code.jumpBack(ClassFile.GOTO, start);
+    code.land(exit);
+    return null;
+  }
+
+  @Override
+  public Void visitLazyStmt(Stmt.Lazy stmt) {
+    Stmt.Block body = Lox.materialize(stmt);
+    if (body != null) generate(body);
+    return null;
+  }
+
+  // Lox runs a program that imports in the tree walking interpreter instead
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    Lox.error(stmt.keyword, "Imports are only run by the tree walking interpreter");
+    return null;
+  }
+}
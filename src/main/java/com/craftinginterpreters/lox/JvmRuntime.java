@@ -0,0 +1,125 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * Support code for programs compiled to JVM classes by {@link JvmCompiler}. Generated classes are
+ * defined by their own class loader and so live in a different runtime package, which is why
+ * everything they call is public. Number fast paths are inline, anything else defers to the
+ * interpreter so results and runtime errors stay the same.
+ */
+public final class JvmRuntime {
+  /** Base class of every generated program. */
+  public abstract static class Program {
+    public abstract void run(JvmRuntime rt, Token[] t, Object[] k);
+  }
+
+  private final Environment globals;
+  private final OutputSink out;
+
+  JvmRuntime(Environment globals, OutputSink out) {
+    this.globals = globals;
+    this.out = out;
+  }
+
+  public Object get(Token name) {
+    return local(globals.get(name), name);
+  }
+
+  public Object local(Object value, Token name) {
+    if (value == null)
+      throw new RuntimeError(
+          name, String.format("Variable %s might not be initialized", name.lexeme));
+    return value;
+  }
+
+  public Object assign(Token name, Object value) {
+    globals.assign(name, value);
+    return value;
+  }
+
+  public void define(Token name, Object value) {
+    globals.define(name.lexeme, value);
+  }
+
+  public void print(Object value) {
+    Interpreter.print(out, value);
+  }
+
+  public boolean truthy(Object value) {
+    return Interpreter.isTruthy(value);
+  }
+
+  public Object not(Object value) {
+    return !Interpreter.isTruthy(value);
+  }
+
+  public Object negate(Object value) {
+    return -(double) value;
+  }
+
+  public Object unary(Token operator, Object right) {
+    return Interpreter.unary(operator, right);
+  }
+
+  public Object add(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return (double) left + (double) right;
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object subtract(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return (double) left - (double) right;
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object multiply(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return (double) left * (double) right;
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object divide(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double && (double) right != 0) {
+      return (double) left / (double) right;
+    }
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object greater(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return (double) left > (double) right;
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object greaterEqual(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return (double) left >= (double) right;
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object less(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return (double) left < (double) right;
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object lessEqual(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) return (double) left <= (double) right;
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object binary(Token operator, Object left, Object right) {
+    return Interpreter.binary(operator, left, right);
+  }
+
+  public Object call(Object callee, Token paren, Object[] arguments) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes");
+    }
+    LoxCallable function = (LoxCallable) callee;
+    if (arguments.length != function.arity()) {
+      throw new RuntimeError(
+          paren,
+          String.format(
+              "Expected %d number of arguments. Got %d", function.arity(), arguments.length));
+    }
+    // natives are the only callables and none of them looks at the interpreter
+    return function.call(null, Arrays.asList(arguments));
+  }
+}
@@ -0,0 +1,319 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loop specific rewrites, run after {@link Optimizer}.
+ *
+ * <p>Loop invariant operations in a while condition are computed once before the loop. The loop
+ * is guarded by one extra evaluation of the original condition, so when the invariant part would
+ * fail it fails at the same point it did before. Only conditions without assignments or calls are
+ * touched, which makes that extra evaluation invisible.
+ *
+ * <p>The increment of a desugared for loop, {@code i = i + <number>}, is marked with its step so
+ * the interpreter can bump the variable in place instead of evaluating the assignment.
+ */
+class LoopOptimizer implements Stmt.Visitor<Stmt> {
+  private int hoisted = 0;
+
+  List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>();
+    for (Stmt statement : statements) {
+      optimized.add(optimize(statement));
+    }
+    return optimized;
+  }
+
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    Stmt.Block block = markInductionVariable(stmt);
+    return Stmt.at(stmt.line, new Stmt.Block(optimize(block.statements)));
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+    return Stmt.at(stmt.line, new Stmt.If(stmt.condition, optimize(stmt.thenBranch), elseBranch));
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Stmt body = optimize(stmt.body);
+    Uses uses = new Uses();
+    stmt.condition.accept(uses);
+    Stmt unchanged = Stmt.at(stmt.line, new Stmt.While(stmt.condition, body));
+    if (uses.assigns || uses.calls) return unchanged;
+    body.accept(uses);
+    if (uses.unparsed) return unchanged;
+
+    List<Stmt> prelude = new ArrayList<>();
+    Expr condition = hoist(stmt.condition, uses.written, prelude);
+    if (prelude.isEmpty()) return unchanged;
+    prelude.add(Stmt.at(stmt.line, new Stmt.While(condition, body)));
+    // the guard gets its own nodes, so each node sits at one place in the tree
+    Stmt.Block loop = Stmt.at(stmt.line, new Stmt.Block(prelude));
+    return Stmt.at(stmt.line, new Stmt.If(copy(stmt.condition), loop, null));
+  }
+
+  private static Expr copy(Expr expr) {
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      return new Expr.Binary(copy(binary.left), binary.operator, copy(binary.right));
+    }
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      return new Expr.Unary(unary.operator, copy(unary.right));
+    }
+    if (expr instanceof Expr.Logical) {
+      Expr.Logical logical = (Expr.Logical) expr;
+      return new Expr.Logical(copy(logical.left), logical.operator, copy(logical.right));
+    }
+    if (expr instanceof Expr.Grouping) {
+      return new Expr.Grouping(copy(((Expr.Grouping) expr).expression));
+    }
+    if (expr instanceof Expr.Variable) {
+      return new Expr.Variable(((Expr.Variable) expr).name);
+    }
+    // conditions with assignments or calls are never rewritten, literals carry no state
+    return expr;
+  }
+
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitImportStmt(Stmt.Import stmt) {
+    return stmt;
+  }
+
+  // replaces invariant operations that are always evaluated with reads of a temporary
+  private Expr hoist(Expr expr, Set<String> written, List<Stmt> prelude) {
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      // '+' can yield nil, which a temporary can not hold without tripping the initialized check
+      if (binary.operator.type != TokenType.PLUS && isInvariant(expr, written)) {
+        return temporary(binary.operator, expr, prelude);
+      }
+      Expr left = hoist(binary.left, written, prelude);
+      Expr right = hoist(binary.right, written, prelude);
+      if (left == binary.left && right == binary.right) return expr;
+      return new Expr.Binary(left, binary.operator, right);
+    }
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      if (isInvariant(expr, written)) return temporary(unary.operator, expr, prelude);
+      Expr right = hoist(unary.right, written, prelude);
+      if (right == unary.right) return expr;
+      return new Expr.Unary(unary.operator, right);
+    }
+    if (expr instanceof Expr.Logical) {
+      // the right operand is not always evaluated, only the left one is a candidate
+      Expr.Logical logical = (Expr.Logical) expr;
+      Expr left = hoist(logical.left, written, prelude);
+      if (left == logical.left) return expr;
+      return new Expr.Logical(left, logical.operator, logical.right);
+    }
+    return expr;
+  }
+
+  private static boolean isInvariant(Expr expr, Set<String> written) {
+    Uses uses = new Uses();
+    expr.accept(uses);
+    if (uses.read.isEmpty()) return false;
+    for (String name : uses.read) {
+      if (written.contains(name)) return false;
+    }
+    return true;
+  }
+
+  private Expr temporary(Token operator, Expr value, List<Stmt> prelude) {
+    // '$' can not appear in a scanned identifier, so this never clashes with a user variable
+    Token name =
+        new Token(TokenType.IDENTIFIER, "$loop" + hoisted++, null, operator.line, operator.column);
+    prelude.add(Stmt.at(operator.line, new Stmt.Var(name, value)));
+    return new Expr.Variable(name);
+  }
+
+  // Block(Var i, While(cond, Block(..., Expression(i = i +/- number)))) as built by Parser, the
+  // block comes back rebuilt around an increment that carries its step
+  private static Stmt.Block markInductionVariable(Stmt.Block block) {
+    if (block.statements.size() != 2) return block;
+    if (!(block.statements.get(0) instanceof Stmt.Var)) return block;
+    if (!(block.statements.get(1) instanceof Stmt.While)) return block;
+    String name = ((Stmt.Var) block.statements.get(0)).name.lexeme;
+    Stmt.While loop = (Stmt.While) block.statements.get(1);
+    if (!(loop.body instanceof Stmt.Block)) return block;
+    List<Stmt> statements = ((Stmt.Block) loop.body).statements;
+    if (statements.isEmpty()) return block;
+    Stmt last = statements.get(statements.size() - 1);
+    if (!(last instanceof Stmt.Expression)) return block;
+    Expr increment = ((Stmt.Expression) last).expression;
+    if (!(increment instanceof Expr.Assign)) return block;
+    Expr.Assign assign = (Expr.Assign) increment;
+    if (!assign.name.lexeme.equals(name) || !(assign.value instanceof Expr.Binary)) return block;
+    Expr.Binary step = (Expr.Binary) assign.value;
+    if (!(step.left instanceof Expr.Variable)) return block;
+    if (!((Expr.Variable) step.left).name.lexeme.equals(name)) return block;
+    if (!(step.right instanceof Expr.Literal)) return block;
+    Object amount = ((Expr.Literal) step.right).value;
+    if (!(amount instanceof Double)) return block;
+    // x - c and x + -c are the same IEEE operation, signed zeros included
+    Double by;
+    if (step.operator.type == TokenType.PLUS) {
+      by = (Double) amount;
+    } else if (step.operator.type == TokenType.MINUS) {
+      by = -(Double) amount;
+    } else {
+      return block;
+    }
+
+    List<Stmt> body = new ArrayList<>(statements.subList(0, statements.size() - 1));
+    Expr marked = new Expr.Assign(assign.name, assign.value, assign.depth, assign.slot, by);
+    body.add(Stmt.at(last.line, new Stmt.Expression(marked)));
+    Stmt.Block rebuilt = Stmt.at(loop.body.line, new Stmt.Block(body));
+    List<Stmt> outer = new ArrayList<>();
+    outer.add(block.statements.get(0));
+    outer.add(Stmt.at(loop.line, new Stmt.While(loop.condition, rebuilt)));
+    return Stmt.at(block.line, new Stmt.Block(outer));
+  }
+
+  /** Collects the variable names read and assigned by a subtree and whether it calls anything. */
+  private static class Uses implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    final Set<String> read = new HashSet<>();
+    final Set<String> written = new HashSet<>();
+    boolean assigns = false;
+    boolean calls = false;
+    // a lazy block or an imported module could write anything
+    boolean unparsed = false;
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      assigns = true;
+      written.add(expr.name.lexeme);
+      expr.value.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      expr.left.accept(this);
+      expr.right.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      calls = true;
+      expr.callee.accept(this);
+      for (Expr argument : expr.arguments) argument.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      expr.expression.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      expr.right.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      expr.left.accept(this);
+      expr.right.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      read.add(expr.name.lexeme);
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      for (Stmt statement : stmt.statements) statement.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      stmt.expression.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      stmt.expression.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      // a redeclaration in the same block rebinds the name, treat it like an assignment
+      written.add(stmt.name.lexeme);
+      if (stmt.initializer != null) stmt.initializer.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      stmt.condition.accept(this);
+      stmt.thenBranch.accept(this);
+      if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      stmt.condition.accept(this);
+      stmt.body.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitLazyStmt(Stmt.Lazy stmt) {
+      unparsed = true;
+      return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+      unparsed = true;
+      return null;
+    }
+  }
+}
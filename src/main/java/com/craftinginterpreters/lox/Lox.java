@@ -3,36 +3,230 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Lox {
+  // the command line's reporter, errors are collected and go to stderr in one print once what the
+  // program printed is out, see printErrors
+  static final ErrorReporter CONSOLE = Lox::report;
+  private static final Diagnostics diagnostics = new Diagnostics();
   private static boolean hadError = false;
   private static String version_number = "0.0.1";
   private static boolean hadRuntimeError = false;
-  private static final Interpreter interpreter = new Interpreter();
+  private static Interpreter interpreter = new Interpreter();
+  private static VM vm = null;
+  private static JvmRuntime jvm = null;
+  private static String scanner = "stream";
+  private static boolean lazy = false;
+  private static boolean validate = false;
+  private static AstCache cache = null;
+  private static boolean profile = false;
+  private static Path collapsedStacks = null;
+  private static Path coverageReport = null;
+  // what the flight recorder events say they came from
+  private static String script = "<stdin>";
+  // what the paths of imports are relative to
+  private static Path directory = Paths.get("");
+  // the parsed and resolved body of each lazy block that ran, kept beside the tree
+  private static final Map<Stmt.Lazy, Stmt.Block> materialized = new IdentityHashMap<>();
 
   public static void main(String args[]) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    List<String> scripts = new ArrayList<>();
+    boolean compileToVm = false;
+    boolean compileToJvm = false;
+    boolean specialize = false;
+    Path socket = null;
+    boolean batch = false;
+    ChannelSink out = ChannelSink.stdout();
+    for (String arg : args) {
+      if (arg.equals("--vm")) {
+        compileToVm = true;
+      } else if (arg.equals("--jvm")) {
+        compileToJvm = true;
+      } else if (arg.equals("--specialize")) {
+        specialize = true;
+      } else if (arg.equals("--profile")) {
+        profile = true;
+      } else if (arg.startsWith("--profile=")) {
+        profile = true;
+        collapsedStacks = Paths.get(arg.substring("--profile=".length()));
+      } else if (arg.equals("--server")) {
+        socket = LoxServer.defaultSocket();
+      } else if (arg.startsWith("--server=")) {
+        socket = Paths.get(arg.substring("--server=".length()));
+      } else if (arg.equals("--batch")) {
+        batch = true;
+      } else if (arg.equals("--coverage")) {
+        coverageReport = Paths.get("lcov.info");
+      } else if (arg.startsWith("--coverage=")) {
+        coverageReport = Paths.get(arg.substring("--coverage=".length()));
+      } else if (arg.matches("--flush=(line|size|exit)")) {
+        String flush = arg.substring("--flush=".length());
+        out = ChannelSink.stdout(ChannelSink.Flush.valueOf(flush.toUpperCase()));
+      } else if (arg.equals("--lazy")) {
+        lazy = true;
+      } else if (arg.equals("--validate")) {
+        validate = true;
+      } else if (arg.equals("--cache")) {
+        cache = new AstCache(Paths.get(System.getProperty("user.home"), ".cache", "jlox"));
+      } else if (arg.startsWith("--cache=")) {
+        cache = new AstCache(Paths.get(arg.substring("--cache=".length())));
+      } else if (arg.matches("--scanner=(stream|compact|parallel)")) {
+        scanner = arg.substring("--scanner=".length());
+      } else if (arg.startsWith("--")) {
+        usage();
+      } else {
+        scripts.add(arg);
+      }
+    }
+    if (profile && coverageReport != null) usage();
+    // jobs run in sessions of their own, the other options are the command line's
+    if (socket != null || batch) {
+      if (!scripts.isEmpty() || socket != null && batch) usage();
+      if (batch) {
+        LoxServer.batch(new BufferedReader(new InputStreamReader(System.in)), System.out);
+      } else {
+        LoxServer.serve(socket);
+      }
+      return;
+    }
+    if (profile) {
+      // what is profiled is the tree walking interpreter, the compilers are left out
+      interpreter = new ProfilingInterpreter(out);
+    } else if (coverageReport != null) {
+      // as is what is covered, and every block is parsed up front to be numbered
+      interpreter = new CoverageInterpreter(out);
+      lazy = false;
+    } else if (specialize) {
+      interpreter = new SpecializingInterpreter(out);
+    } else {
+      interpreter = new Interpreter(out);
+    }
+    boolean treeWalking = profile || coverageReport != null;
+    // a line that imports runs in the tree walker, so the VM works on the same globals
+    if (compileToVm && !treeWalking) vm = new VM(interpreter.globals, out);
+    if (compileToJvm && !treeWalking) jvm = new JvmRuntime(interpreter.globals, out);
+    if (scripts.size() > 1) {
+      usage();
+    } else if (scripts.size() == 1) {
+      runFile(scripts.get(0));
     } else {
       runPrompt();
+      report();
     }
   }
 
+  private static void usage() {
+    System.out.println(
+        "Usage: jlox [--vm | --jvm | --specialize | --profile[=stacks] | --coverage[=lcov]]"
+            + " [--scanner=stream|compact|parallel] [--lazy [--validate]] [--cache[=dir]]"
+            + " [--flush=line|size|exit] [script]");
+    System.out.println("       jlox --server[=socket] | --batch");
+    System.exit(64);
+  }
+
   public static void runFile(String fileName) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(fileName));
-    run(new String(bytes));
-    if (hadError) System.exit(65);
-    if (hadRuntimeError) System.exit(70);
+    int status = exec(Paths.get(fileName));
+    report();
+    if (status != 0) System.exit(status);
   }
 
+  // after everything the program printed, on stderr so it does not mix with the program's output
+  private static void report() throws IOException {
+    if (profile) {
+      ProfilingInterpreter profiler = (ProfilingInterpreter) interpreter;
+      interpreter.output().flush();
+      profiler.report(System.err);
+      if (collapsedStacks != null) profiler.writeCollapsed(collapsedStacks);
+    }
+    if (coverageReport != null) {
+      interpreter.output().flush();
+      ((CoverageInterpreter) interpreter).report(coverageReport, System.err);
+    }
+  }
+
+  /**
+   * Runs a script in a {@link Session} of its own, sending what it prints to out and its errors to
+   * stderr. Returns the status the command line would exit with, 65 for a syntax error and 70 for a
+   * runtime error, instead of exiting. Nothing static is touched, so scripts can run side by side.
+   */
+  public static int runFile(Path path, OutputSink out) throws IOException {
+    Session session = new Session(out);
+    Program program =
+        session.parse(new String(Files.readAllBytes(path)), path.toAbsolutePath().getParent());
+    if (program != null) session.run(program);
+    System.err.print(session.errors());
+    return session.status();
+  }
+
+  private static int exec(Path path) throws IOException {
+    script = path.toString();
+    directory = path.toAbsolutePath().getParent();
+    hadError = false;
+    hadRuntimeError = false;
+    try {
+      if (cache != null) {
+        runCached(path);
+      } else if (!scanner.equals("stream")) {
+        run(new String(Files.readAllBytes(path)));
+      } else if (Files.isRegularFile(path)) {
+        // scanned straight from a mapping of the file, tokens are produced as the parser asks
+        try (FileChannel channel = FileChannel.open(path)) {
+          TokenSource tokens = new StreamingScanner(channel, Charset.defaultCharset());
+          run(new Parser(tokens, lazy, validate));
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      } else {
+        // a pipe or a device has no size to map, it is read as it comes
+        try (Reader reader =
+            new InputStreamReader(Files.newInputStream(path), Charset.defaultCharset())) {
+          run(new Parser(new StreamingScanner(reader), lazy, validate));
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      }
+    } finally {
+      // also when the interpreter itself failed, what the script printed up to there still shows
+      printErrors();
+    }
+    if (hadError) return 65;
+    if (hadRuntimeError) return 70;
+    return 0;
+  }
+
+  // the source is hashed anyway, so it is read whole instead of streamed
+  private static void runCached(Path path) throws IOException {
+    byte[] bytes = Files.readAllBytes(path);
+    String key = AstCache.key(bytes, lazy);
+    List<Stmt> statements = cache.load(key);
+    if (statements == null) {
+      statements = parse(parser(new String(bytes)));
+      if (hadError) return;
+      try {
+        cache.store(key, statements);
+      } catch (IOException e) {
+        // a cache that can not be written only costs the next run a parse
+      }
+    }
+    execute(statements);
+  }
+
+  // the lines typed so far are one document, a line is scanned and parsed on its own and errors
+  // are on the line of the session they were typed on
   private static void runPrompt() {
     System.out.println("Repl Lox Version " + version_number);
+    IncrementalDocument document = new IncrementalDocument();
     try (InputStreamReader reader = new InputStreamReader(System.in)) {
       BufferedReader br = new BufferedReader(reader);
       for (; ; ) {
@@ -41,7 +235,17 @@ public class Lox {
         if (line == null) {
           break;
         }
-        run(line);
+        int offset = document.length();
+        List<Stmt> statements = document.edit(offset, 0, line + "\n");
+        if (document.hasErrors()) {
+          document.report(CONSOLE);
+          // a line that does not parse is dropped, the next one goes in its place
+          document.edit(offset, document.length() - offset, "");
+        } else {
+          execute(statements);
+          document.freeze();
+        }
+        printErrors();
         hadError = false;
       }
     } catch (IOException e) {
@@ -50,33 +254,167 @@ public class Lox {
   }
 
   private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
+    run(parser(source));
+  }
+
+  private static Parser parser(String source) {
+    if (!LoxEvents.ENABLED) return scan(source, null);
+    LoxEvents.Scan event = new LoxEvents.Scan();
+    event.begin();
+    Parser parser = scan(source, event);
+    event.script = script;
+    event.commit();
+    return parser;
+  }
+
+  // the event, when there is one, is told how many tokens there were
+  private static Parser scan(String source, LoxEvents.Scan event) {
+    if (scanner.equals("compact")) {
+      TokenBuffer tokens = new CompactScanner(source).scanTokens();
+      if (event != null) event.tokens = tokens.size();
+      return new Parser(tokens.tokens(), lazy, validate);
+    }
+    List<Token> tokens =
+        scanner.equals("parallel")
+            ? new ParallelScanner(source).scanTokens()
+            : new Scanner(source).scanTokens();
+    if (event != null) event.tokens = tokens.size();
+    return new Parser(tokens, lazy, validate);
+  }
+
+  private static void run(Parser parser) {
+    List<Stmt> statements = parse(parser);
     if (hadError) return;
+    execute(statements);
+  }
+
+  private static List<Stmt> parse(Parser parser) {
+    if (!LoxEvents.ENABLED) return parser.parse();
+    LoxEvents.Parse event = new LoxEvents.Parse();
+    event.begin();
+    List<Stmt> statements = parser.parse();
+    event.script = script;
+    event.statements = statements.size();
+    event.commit();
+    return statements;
+  }
+
+  private static void execute(List<Stmt> statements) {
+    Map<Stmt.Import, ModuleLoader.Module> modules =
+        ModuleLoader.load(statements, directory, CONSOLE);
+    if (modules == null) return;
+    interpreter.modules(modules);
+    // the coverage report is about the nodes as parsed, which the optimizers would fold and replace
+    if (!(interpreter instanceof CoverageInterpreter)) {
+      statements = new Optimizer().optimize(statements);
+      statements = new LoopOptimizer().optimize(statements);
+    }
+    boolean compile = modules.isEmpty();
+    if (!LoxEvents.ENABLED) {
+      interpret(statements, compile);
+      return;
+    }
+    LoxEvents.Interpret event = new LoxEvents.Interpret();
+    event.begin();
+    try {
+      interpret(statements, compile);
+    } finally {
+      event.script = script;
+      event.commit();
+    }
+  }
+
+  // modules only run in the tree walking interpreter, a program that imports any does too
+  private static void interpret(List<Stmt> statements, boolean compile) {
+    if (vm != null && compile) {
+      Chunk chunk = new Compiler().compile(statements);
+      if (hadError) return;
+      vm.interpret(chunk);
+      return;
+    }
+    if (jvm != null && compile) {
+      JvmCompiler.Compiled program = new JvmCompiler().compile(statements);
+      if (hadError) return;
+      if (program != null) {
+        try {
+          program.run(jvm);
+        } catch (RuntimeError error) {
+          runtimeError(error);
+        }
+        return;
+      }
+      // a statement over the 64k limit of a method
+    }
+    statements = new Resolver().resolve(statements);
+    if (interpreter instanceof CoverageInterpreter) {
+      ((CoverageInterpreter) interpreter).number(script, statements);
+    }
     interpreter.interpret(statements);
   }
 
-  static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
+  /**
+   * Parses a block left unparsed by a lazy parse, loads the modules it imports, then optimizes it
+   * and, once the resolver has seen where it sits, resolves it. Returns null when the block has a
+   * syntax error or a module can not be loaded.
+   */
+  static Stmt.Block materialize(Stmt.Lazy stmt) {
+    Stmt.Block body = materialized.get(stmt);
+    if (body == null) {
+      Stmt.Block block = Parser.parseLazy(stmt, lazy);
+      if (block == null || hadError) return null;
+      Map<Stmt.Import, ModuleLoader.Module> modules =
+          ModuleLoader.load(block.statements, directory, CONSOLE);
+      if (modules == null) return null;
+      interpreter.modules(modules);
+      List<Stmt> statements = new Optimizer().optimize(block.statements);
+      block = Stmt.at(block.line, new Stmt.Block(new LoopOptimizer().optimize(statements)));
+      body = stmt.resolver == null ? block : (Stmt.Block) stmt.resolver.resolve(block);
+      materialized.put(stmt, body);
     }
+    return body;
+  }
+
+  static void error(Token token, String message) {
+    report(Diagnostic.at(token, message));
+  }
+
+  static String where(Token token) {
+    return token.type == TokenType.EOF ? " at end" : " at '" + token.lexeme + "'";
   }
 
   static void error(int line, String message) {
-    report(line, "", message);
+    error(line, 0, message);
   }
 
-  private static void report(int line, String where, String message) {
-    System.err.println(String.format("[line %d] Error:  %s : %s ",line, where, message));
-    hadError = true;
+  static void error(int line, int column, String message) {
+    report(Diagnostic.at(line, column, message));
   }
 
   public static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + " [line " + error.token.line + "]");
-    hadRuntimeError = true;
+    report(Diagnostic.of(error));
+  }
+
+  private static void report(Diagnostic diagnostic) {
+    if (!diagnostic.isRuntime()) {
+      hadError = true;
+    } else {
+      if (LoxMetrics.ENABLED) LoxMetrics.RUNTIME_ERRORS.increment();
+      if (LoxEvents.ENABLED) {
+        LoxEvents.RuntimeError event = new LoxEvents.RuntimeError();
+        event.script = script;
+        event.line = diagnostic.line();
+        event.message = diagnostic.message();
+        event.commit();
+      }
+      hadRuntimeError = true;
+    }
+    diagnostics.report(diagnostic);
+  }
+
+  // whatever the program printed before it failed comes first
+  private static void printErrors() {
+    interpreter.output().flush();
+    diagnostics.print(System.err);
+    diagnostics.clear();
   }
 }
@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Map;
+
+/** Defines the classes of one compiled program, they are unloaded together with the loader. */
+class LoxClassLoader extends ClassLoader {
+  private final Map<String, byte[]> classes;
+
+  LoxClassLoader(Map<String, byte[]> classes) {
+    super(LoxClassLoader.class.getClassLoader());
+    this.classes = classes;
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    byte[] bytes = classes.get(name);
+    if (bytes == null) throw new ClassNotFoundException(name);
+    return defineClass(name, bytes, 0, bytes.length);
+  }
+}
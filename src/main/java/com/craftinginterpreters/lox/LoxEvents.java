@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder events, so a recording of the JVM running Lox shows what the interpreter was
+ * doing next to GC pauses and allocations. None of them take a Java stack trace, it would only show
+ * the interpreter's visit methods.
+ *
+ * <p>The first event class that is loaded makes the recorder register its metadata, which adds a
+ * few hundred milliseconds to every start. So they are only used when a recording was started with
+ * the JVM, -XX:StartFlightRecording, or when -Dlox.events=true asks for them, for a recording
+ * started later with jcmd. Otherwise each place that would record checks {@link #ENABLED} and
+ * nothing of this class is touched.
+ *
+ * <p>Slow statements are only committed above their threshold, 20 ms unless a recording sets
+ * another, e.g. {@code com.craftinginterpreters.lox.SlowStatement#threshold=1 ms} in a .jfc file
+ * or {@code recording.enable(LoxEvents.SlowStatement.class).withThreshold(...)}.
+ */
+final class LoxEvents {
+  static final boolean ENABLED =
+      Boolean.getBoolean("lox.events") || FlightRecorder.isInitialized();
+
+  private LoxEvents() {}
+
+  @Name("com.craftinginterpreters.lox.Scan")
+  @Label("Lox Scan")
+  @Category("Lox")
+  @Description("Turning the source text into tokens")
+  @StackTrace(false)
+  static class Scan extends Event {
+    @Label("Script")
+    String script;
+
+    @Label("Tokens")
+    int tokens;
+  }
+
+  @Name("com.craftinginterpreters.lox.Parse")
+  @Label("Lox Parse")
+  @Category("Lox")
+  @Description("Turning tokens into statements, with the streaming scanner scanning included")
+  @StackTrace(false)
+  static class Parse extends Event {
+    @Label("Script")
+    String script;
+
+    @Label("Statements")
+    int statements;
+  }
+
+  @Name("com.craftinginterpreters.lox.Interpret")
+  @Label("Lox Interpret")
+  @Category("Lox")
+  @Description("Resolving and running the optimized program, or compiling and running it")
+  @StackTrace(false)
+  static class Interpret extends Event {
+    @Label("Script")
+    String script;
+  }
+
+  @Name("com.craftinginterpreters.lox.RuntimeError")
+  @Label("Lox Runtime Error")
+  @Category("Lox")
+  @StackTrace(false)
+  static class RuntimeError extends Event {
+    @Label("Script")
+    String script;
+
+    @Label("Line")
+    int line;
+
+    @Label("Message")
+    String message;
+  }
+
+  @Name("com.craftinginterpreters.lox.SlowStatement")
+  @Label("Lox Slow Statement")
+  @Category("Lox")
+  @Description("A statement of the tree walking interpreter that ran longer than the threshold")
+  @StackTrace(false)
+  @Threshold("20 ms")
+  static class SlowStatement extends Event {
+    @Label("Line")
+    int line;
+
+    @Label("Statement")
+    String statement;
+  }
+}
@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs programs concurrently, each in a {@link Session} of its own. On Java 21 and later every
+ * program gets a virtual thread, so thousands of them can be in flight at once. The build targets
+ * Java 11, so the executor is looked up reflectively, and older JVMs fall back to a pool with a
+ * platform thread per core. Either way the threads are daemons, {@link #close} waits for what is
+ * still running.
+ */
+public final class LoxExecutor implements AutoCloseable {
+  private final ExecutorService executor;
+  private final boolean virtual;
+
+  public LoxExecutor() {
+    ExecutorService virtualThreads = virtualThreadExecutor();
+    this.virtual = virtualThreads != null;
+    this.executor =
+        virtual
+            ? virtualThreads
+            : Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), LoxExecutor::daemon);
+  }
+
+  // like virtual threads, the pool's do not keep the JVM alive
+  private static Thread daemon(Runnable task) {
+    Thread thread = new Thread(task, "lox-session");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static ExecutorService virtualThreadExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      // not there before Java 21, or still a preview feature that is not enabled
+      return null;
+    }
+  }
+
+  /** Whether programs run on virtual threads rather than the pool. */
+  public boolean usesVirtualThreads() {
+    return virtual;
+  }
+
+  /**
+   * Runs the program in a fresh session printing to out. The future gives the session once the
+   * program has finished, with its status and errors.
+   */
+  public Future<Session> submit(Program program, OutputSink out) {
+    return executor.submit(
+        () -> {
+          Session session = new Session(out);
+          session.run(program);
+          return session;
+        });
+  }
+
+  // other work that should run the way the programs do, the server handling a connection
+  <T> Future<T> submit(Callable<T> task) {
+    return executor.submit(task);
+  }
+
+  /**
+   * Takes no more programs and waits for the ones already submitted to finish. An interrupt stops
+   * the wait and is left set on the calling thread.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
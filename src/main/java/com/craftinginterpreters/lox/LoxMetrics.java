@@ -0,0 +1,140 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters the interpreter updates as it runs, published as a platform MXBean so any JMX client
+ * can read them. They are off unless the JVM is started with {@code -Dlox.metrics=true}. Every
+ * update is guarded by {@link #ENABLED}, a static final the JIT treats as a constant, so with
+ * metrics off the guarded code is compiled away. The counters are LongAdders, which spread
+ * concurrent updates over cells instead of contending on a single value.
+ *
+ * <p>Scan time covers the scanners that run before the parser. The streaming scanner hands tokens
+ * to the parser as it asks for them, so with it scanning is part of parse time. Interpret time is
+ * that of the tree walking interpreter, a block parsed lazily is parsed during that time.
+ */
+public final class LoxMetrics implements LoxMetricsMXBean {
+  public static final String NAME = "com.craftinginterpreters.lox:type=Metrics";
+  static final boolean ENABLED = Boolean.getBoolean("lox.metrics");
+
+  static final LongAdder STATEMENTS = new LongAdder();
+  static final LongAdder LOOKUPS = new LongAdder();
+  static final LongAdder HOPS = new LongAdder();
+  static final LongAdder ENVIRONMENTS = new LongAdder();
+  static final LongAdder BOXED = new LongAdder();
+  static final LongAdder CONCATENATIONS = new LongAdder();
+  static final LongAdder RUNTIME_ERRORS = new LongAdder();
+  static final LongAdder TOKENS = new LongAdder();
+  static final LongAdder PARSED = new LongAdder();
+  static final LongAdder SCAN_NANOS = new LongAdder();
+  static final LongAdder PARSE_NANOS = new LongAdder();
+  static final LongAdder INTERPRET_NANOS = new LongAdder();
+
+  static {
+    // registered the first time anything checks ENABLED, which every entry point does early on
+    if (ENABLED) {
+      try {
+        ManagementFactory.getPlatformMBeanServer()
+            .registerMBean(new LoxMetrics(), new ObjectName(NAME));
+      } catch (JMException e) {
+        System.err.println("Could not register the metrics MXBean: " + e.getMessage());
+      }
+    }
+  }
+
+  private LoxMetrics() {}
+
+  static void lookup(int depth) {
+    LOOKUPS.increment();
+    HOPS.add(depth);
+  }
+
+  static void scanned(int tokens, long started) {
+    TOKENS.add(tokens);
+    SCAN_NANOS.add(System.nanoTime() - started);
+  }
+
+  static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  @Override
+  public long getStatementsExecuted() {
+    return STATEMENTS.sum();
+  }
+
+  @Override
+  public long getEnvironmentLookups() {
+    return LOOKUPS.sum();
+  }
+
+  @Override
+  public long getChainWalkDepth() {
+    return HOPS.sum();
+  }
+
+  @Override
+  public double getAverageChainWalkDepth() {
+    long lookups = LOOKUPS.sum();
+    return lookups == 0 ? 0 : (double) HOPS.sum() / lookups;
+  }
+
+  @Override
+  public long getEnvironmentsCreated() {
+    return ENVIRONMENTS.sum();
+  }
+
+  @Override
+  public long getNumbersBoxed() {
+    return BOXED.sum();
+  }
+
+  @Override
+  public long getStringConcatenations() {
+    return CONCATENATIONS.sum();
+  }
+
+  @Override
+  public long getRuntimeErrors() {
+    return RUNTIME_ERRORS.sum();
+  }
+
+  @Override
+  public long getTokensScanned() {
+    return TOKENS.sum();
+  }
+
+  @Override
+  public long getStatementsParsed() {
+    return PARSED.sum();
+  }
+
+  @Override
+  public long getScanTimeNanos() {
+    return SCAN_NANOS.sum();
+  }
+
+  @Override
+  public long getParseTimeNanos() {
+    return PARSE_NANOS.sum();
+  }
+
+  @Override
+  public long getInterpretTimeNanos() {
+    return INTERPRET_NANOS.sum();
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder adder :
+        new LongAdder[] {
+          STATEMENTS, LOOKUPS, HOPS, ENVIRONMENTS, BOXED, CONCATENATIONS, RUNTIME_ERRORS, TOKENS,
+          PARSED, SCAN_NANOS, PARSE_NANOS, INTERPRET_NANOS
+        }) {
+      adder.reset();
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The interpreter's counters as JMX sees them, under {@value LoxMetrics#NAME}. Times are in
+ * nanoseconds and every value counts from the start of the process or the last reset.
+ */
+public interface LoxMetricsMXBean {
+  long getStatementsExecuted();
+
+  long getEnvironmentLookups();
+
+  /** Enclosing environments walked past over all lookups. */
+  long getChainWalkDepth();
+
+  double getAverageChainWalkDepth();
+
+  long getEnvironmentsCreated();
+
+  long getNumbersBoxed();
+
+  long getStringConcatenations();
+
+  long getRuntimeErrors();
+
+  long getTokensScanned();
+
+  long getStatementsParsed();
+
+  long getScanTimeNanos();
+
+  long getParseTimeNanos();
+
+  long getInterpretTimeNanos();
+
+  void reset();
+}
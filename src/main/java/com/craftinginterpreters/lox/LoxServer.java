@@ -0,0 +1,177 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The --server and --batch modes, one JVM that runs job after job, so a script pays neither for
+ * starting the JVM nor for an interpreter the JIT has not compiled yet. Every job runs in a {@link
+ * Session} of its own on a {@link LoxExecutor}, jobs see nothing of each other.
+ *
+ * <p>A connection to the server carries one job. Its first line is either "FILE path", for a script
+ * the server reads, or "SOURCE", and then the script follows up to the end of what the client
+ * sends. In batch mode every line of stdin is the path of a script. The answer to a job is a line
+ * "STATUS code out err" followed by what the script printed and its errors, out and err being their
+ * lengths in bytes. The code is what the command line would exit with, 0, 65 or 70, or 66 when the
+ * script can not be read. Batch mode writes the answers to stdout in the order of the jobs.
+ */
+final class LoxServer {
+  // for JVMs without Unix domain sockets
+  static final int PORT = 7411;
+
+  private LoxServer() {}
+
+  static Path defaultSocket() {
+    return Paths.get(System.getProperty("java.io.tmpdir"), "jlox.sock");
+  }
+
+  /** Serves jobs on a Unix domain socket, or before Java 16 on a loopback port, until killed. */
+  static void serve(Path socket) throws IOException {
+    LoxExecutor executor = new LoxExecutor();
+    try (ServerSocketChannel server = open(socket)) {
+      System.err.println("Serving on " + server.getLocalAddress());
+      for (; ; ) {
+        SocketChannel client = server.accept();
+        executor.submit(() -> handle(client));
+      }
+    }
+  }
+
+  private static ServerSocketChannel open(Path socket) throws IOException {
+    SocketAddress address;
+    ServerSocketChannel server;
+    try {
+      address =
+          (SocketAddress)
+              Class.forName("java.net.UnixDomainSocketAddress")
+                  .getMethod("of", Path.class)
+                  .invoke(null, socket);
+      server =
+          (ServerSocketChannel)
+              ServerSocketChannel.class
+                  .getMethod("open", ProtocolFamily.class)
+                  .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+    } catch (InvocationTargetException e) {
+      throw new IOException(e.getCause());
+    } catch (ReflectiveOperationException | IllegalArgumentException e) {
+      // no Unix domain sockets before Java 16, a port only this machine can connect to instead
+      server = ServerSocketChannel.open();
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT));
+      return server;
+    }
+    // left behind by a server that was killed, it would make bind fail
+    Files.deleteIfExists(socket);
+    server.bind(address);
+    socket.toFile().deleteOnExit();
+    return server;
+  }
+
+  private static Void handle(SocketChannel client) throws IOException {
+    try (SocketChannel channel = client) {
+      InputStream in = Channels.newInputStream(channel);
+      String request = readLine(in);
+      byte[] answer;
+      if (request.startsWith("FILE ")) {
+        answer = runFile(Paths.get(request.substring("FILE ".length())));
+      } else if (request.equals("SOURCE")) {
+        answer = run(new String(in.readAllBytes(), StandardCharsets.UTF_8), Paths.get(""));
+      } else {
+        answer = answer(64, "", "Expected FILE path or SOURCE, not '" + request + "'\n");
+      }
+      Channels.newOutputStream(channel).write(answer);
+    }
+    return null;
+  }
+
+  // byte by byte, a reader would buffer part of the source that follows
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (int b = in.read(); b != -1 && b != '\n'; b = in.read()) line.write(b);
+    return line.toString(StandardCharsets.UTF_8).trim();
+  }
+
+  /** Runs the scripts named by the lines of jobs and writes their answers to out. */
+  static void batch(BufferedReader jobs, OutputStream out) throws IOException {
+    LoxExecutor executor = new LoxExecutor();
+    Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    try {
+      for (String line = jobs.readLine(); line != null; line = jobs.readLine()) {
+        if (line.isBlank()) continue;
+        Path path = Paths.get(line.trim());
+        pending.add(executor.submit(() -> runFile(path)));
+        // an answer goes out as soon as the jobs before it have theirs out
+        while (!pending.isEmpty() && pending.peek().isDone()) write(pending.remove(), out);
+      }
+      while (!pending.isEmpty()) write(pending.remove(), out);
+      executor.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void write(Future<byte[]> answer, OutputStream out)
+      throws IOException, InterruptedException {
+    try {
+      out.write(answer.get());
+      out.flush();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static byte[] runFile(Path path) {
+    String source;
+    try {
+      source = new String(Files.readAllBytes(path));
+    } catch (IOException e) {
+      return answer(66, "", "Can not read " + path + ": " + e + "\n");
+    }
+    return run(source, path.toAbsolutePath().getParent());
+  }
+
+  // imports are relative to the script, or to the server's directory for a source job
+  private static byte[] run(String source, Path directory) {
+    MemorySink out = new MemorySink();
+    Session session = new Session(out);
+    try {
+      Program program = session.parse(source, directory);
+      if (program != null) session.run(program);
+      return answer(session.status(), out.contents(), session.errors());
+    } catch (RuntimeException e) {
+      // a bug in the interpreter fails the job, not the server
+      return answer(70, out.contents(), session.errors() + e + "\n");
+    }
+  }
+
+  private static byte[] answer(int status, String printed, String errors) {
+    byte[] out = printed.getBytes(StandardCharsets.UTF_8);
+    byte[] err = errors.getBytes(StandardCharsets.UTF_8);
+    String header = "STATUS " + status + " " + out.length + " " + err.length + "\n";
+    ByteArrayOutputStream answer =
+        new ByteArrayOutputStream(header.length() + out.length + err.length);
+    answer.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+    answer.writeBytes(out);
+    answer.writeBytes(err);
+    return answer.toByteArray();
+  }
+}
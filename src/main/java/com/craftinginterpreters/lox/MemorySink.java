@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox;
+
+/** Collects printed lines in memory, for embedding the interpreter and for tests. */
+public class MemorySink implements OutputSink {
+  private final StringBuilder text = new StringBuilder();
+
+  @Override
+  public void println(String line) {
+    text.append(line).append('\n');
+  }
+
+  @Override
+  public void println(double number) {
+    NumberFormatter.append(text, number).append('\n');
+  }
+
+  @Override
+  public void flush() {}
+
+  /** Everything printed so far, one line per print. */
+  public String contents() {
+    return text.toString();
+  }
+
+  public void clear() {
+    text.setLength(0);
+  }
+}
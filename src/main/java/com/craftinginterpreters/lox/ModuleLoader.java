@@ -0,0 +1,188 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Loads the modules a program imports before it runs. Every module found is scanned and parsed in
+ * a fork join task of its own, and the modules it imports in turn are forked from there, so a
+ * program with many imports loads them on all cores. The path in an import is relative to the
+ * file it is in.
+ *
+ * <p>Loaded modules are optimized and resolved on their own, as programs that only define
+ * globals, and then kept in a cache shared by everything that imports them. The cache is keyed on
+ * a hash of the file's contents, as {@link AstCache} is, so a module is parsed again whenever its
+ * text changed, however close to the last parse. A module with errors is not kept, the next
+ * import reads it again. The interpreter runs a module the first time it is imported, see {@link
+ * Interpreter#visitImportStmt}.
+ */
+final class ModuleLoader {
+  /** A parsed module, or the errors that kept it from being one. */
+  static final class Module {
+    final String path;
+    // hash of the source it was parsed from, null when it could not be read
+    final String hash;
+    // null when the module has errors
+    final List<Stmt> statements;
+    // the path of the module each of its imports names
+    final Map<Stmt.Import, String> imports;
+    // reported once all loading is done
+    final List<Diagnostic> problems;
+
+    private Module(
+        String path,
+        String hash,
+        List<Stmt> statements,
+        Map<Stmt.Import, String> imports,
+        List<Diagnostic> problems) {
+      this.path = path;
+      this.hash = hash;
+      this.statements = statements;
+      this.imports = imports;
+      this.problems = problems;
+    }
+  }
+
+  private static final Map<String, Module> cache = new ConcurrentHashMap<>();
+
+  private ModuleLoader() {}
+
+  /**
+   * Loads every module the statements import, directly or through other modules, and returns the
+   * module each of those imports names, the statements' own and the modules' alike. Returns null
+   * when one can not be read or has syntax errors, after reporting them.
+   */
+  static Map<Stmt.Import, Module> load(
+      List<Stmt> statements, Path directory, ErrorReporter reporter) {
+    Map<Stmt.Import, String> links = link(imports(statements), directory);
+    if (links.isEmpty()) return Collections.emptyMap();
+    Map<String, Module> loaded = new ConcurrentHashMap<>();
+    Set<String> seen = ConcurrentHashMap.newKeySet();
+    ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> load(links, "", seen, loaded)));
+
+    // in the order of the paths, whichever task got to them first
+    Map<String, Module> modules = new TreeMap<>(loaded);
+    boolean failed = false;
+    for (Module module : modules.values()) {
+      for (Diagnostic problem : module.problems) {
+        reporter.report(problem);
+        failed = true;
+      }
+    }
+    if (failed) return null;
+    Map<Stmt.Import, Module> linked = new IdentityHashMap<>();
+    for (Map.Entry<Stmt.Import, String> link : links.entrySet()) {
+      linked.put(link.getKey(), modules.get(link.getValue()));
+    }
+    for (Module module : modules.values()) {
+      for (Map.Entry<Stmt.Import, String> link : module.imports.entrySet()) {
+        linked.put(link.getKey(), modules.get(link.getValue()));
+      }
+    }
+    return linked;
+  }
+
+  // the imports of a module are linked when it is parsed, those of a program every time it loads
+  private static Map<Stmt.Import, String> link(List<Stmt.Import> imports, Path directory) {
+    Map<Stmt.Import, String> links = new IdentityHashMap<>();
+    for (Stmt.Import stmt : imports) {
+      Path path = directory.resolve((String) stmt.path.literal).toAbsolutePath().normalize();
+      links.put(stmt, path.toString());
+    }
+    return links;
+  }
+
+  /** Loads the modules of a list of imports that were not seen yet, each in a task of its own. */
+  private static void load(
+      Map<Stmt.Import, String> imports, String from, Set<String> seen, Map<String, Module> loaded) {
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (Map.Entry<Stmt.Import, String> link : imports.entrySet()) {
+      if (!seen.add(link.getValue())) continue;
+      tasks.add(
+          ForkJoinTask.adapt(
+              () -> {
+                Module module = module(link.getKey(), link.getValue(), from);
+                loaded.put(module.path, module);
+                if (!module.imports.isEmpty()) {
+                  load(module.imports, " in " + module.path, seen, loaded);
+                }
+              }));
+    }
+    ForkJoinTask.invokeAll(tasks);
+  }
+
+  private static Module module(Stmt.Import stmt, String target, String from) {
+    Path path = Paths.get(target);
+    try {
+      byte[] source = Files.readAllBytes(path);
+      String hash = AstCache.key(source, false);
+      Module cached = cache.get(target);
+      if (cached != null && cached.hash.equals(hash)) return cached;
+      Module module = parse(path, hash, new String(source));
+      if (module.problems.isEmpty()) {
+        cache.put(module.path, module);
+      } else {
+        cache.remove(module.path);
+      }
+      return module;
+    } catch (IOException e) {
+      Diagnostic problem =
+          Diagnostic.at(stmt.path, "Can not read the module, " + e.getClass().getSimpleName())
+              .moved(stmt.keyword.line, stmt.path.column, Lox.where(stmt.path) + from);
+      return new Module(
+          target, null, null, Collections.emptyMap(), Collections.singletonList(problem));
+    }
+  }
+
+  private static Module parse(Path path, String hash, String source) {
+    String file = " in " + path;
+    List<Diagnostic> problems = new ArrayList<>();
+    // collected on this task's thread, the caller's reporter need not be thread safe
+    ErrorReporter reporter =
+        problem ->
+            problems.add(problem.moved(problem.line(), problem.column(), problem.where() + file));
+    List<Token> tokens = new Scanner(source, reporter).scanTokens();
+    List<Stmt> statements = new Parser(tokens, reporter).parse();
+    if (!problems.isEmpty()) {
+      return new Module(path.toString(), hash, null, Collections.emptyMap(), problems);
+    }
+    statements = new Optimizer().optimize(statements);
+    statements = new LoopOptimizer().optimize(statements);
+    statements = new Resolver().resolve(statements);
+    Map<Stmt.Import, String> imports = link(imports(statements), path.getParent());
+    return new Module(
+        path.toString(), hash, Collections.unmodifiableList(statements), imports, problems);
+  }
+
+  /** The import statements anywhere in the statements, blocks not parsed yet aside. */
+  static List<Stmt.Import> imports(List<Stmt> statements) {
+    List<Stmt.Import> imports = new ArrayList<>();
+    for (Stmt stmt : statements) collect(stmt, imports);
+    return imports;
+  }
+
+  private static void collect(Stmt stmt, List<Stmt.Import> imports) {
+    if (stmt instanceof Stmt.Import) {
+      imports.add((Stmt.Import) stmt);
+    } else if (stmt instanceof Stmt.Block) {
+      for (Stmt statement : ((Stmt.Block) stmt).statements) collect(statement, imports);
+    } else if (stmt instanceof Stmt.If) {
+      collect(((Stmt.If) stmt).thenBranch, imports);
+      collect(((Stmt.If) stmt).elseBranch, imports);
+    } else if (stmt instanceof Stmt.While) {
+      collect(((Stmt.While) stmt).body, imports);
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package com.craftinginterpreters.lox;
+
+import java.math.BigInteger;
+
+/**
+ * Writes numbers the way {@link Interpreter#stringify} shows them, Double.toString without a
+ * trailing ".0", straight into a caller's char array instead of through intermediate strings.
+ *
+ * <p>Integral values below 10^7 are written as the digits of a long. Everything else goes through
+ * Giulietti's Schubfach algorithm, which picks the shortest decimal that reads back as the same
+ * double and lays it out in Double.toString's plain or computerized scientific notation.
+ *
+ * <p>Double.toString only gives the shortest decimal since JDK 19, before that it sometimes writes
+ * a longer one, e.g. 9.999999999999999E22 for 1e23. Lox prints what Double.toString gives on the
+ * JDK it runs on, so older ones get everything but the integral fast path from Double.toString.
+ */
+final class NumberFormatter {
+  /** Longest text {@link #format} writes, e.g. -1.2345678901234567E-308. */
+  static final int MAX_LENGTH = 24;
+
+  // binary64: precision, smallest exponent, hidden bit
+  private static final int P = 53;
+  private static final int Q_MIN = -1074;
+  private static final long C_MIN = 1L << (P - 1);
+  private static final int BQ_MASK = 0x7ff;
+  private static final long T_MASK = C_MIN - 1;
+  // subnormal significands below this get one more digit of precision to work with
+  private static final long C_TINY = 3;
+  private static final int K_MIN = -324;
+  private static final int K_MAX = 292;
+  // digits of the longest shortest decimal
+  private static final int H = 17;
+  private static final long MASK_63 = Long.MAX_VALUE;
+  private static final boolean SHORTEST = Runtime.version().feature() >= 19;
+
+  private static final long[] POW10 = new long[H + 1];
+  // g = floor(10^-k 2^-r) + 1 with 2^125 <= g < 2^126, split into its high and low 63 bits
+  private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i <= H; i++) POW10[i] = 10 * POW10[i - 1];
+    for (int k = K_MIN; k <= K_MAX; k++) {
+      int shift = 125 - flog2pow10(-k);
+      BigInteger g;
+      if (k <= 0) {
+        BigInteger pow = BigInteger.TEN.pow(-k);
+        g = shift >= 0 ? pow.shiftLeft(shift) : pow.shiftRight(-shift);
+      } else {
+        g = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+      }
+      g = g.add(BigInteger.ONE);
+      G[2 * (k - K_MIN)] = g.shiftRight(63).longValue();
+      G[2 * (k - K_MIN) + 1] = g.longValue() & MASK_63;
+    }
+  }
+
+  private NumberFormatter() {}
+
+  /** Writes the number at pos and returns the position after it. */
+  static int format(double value, char[] buf, int pos) {
+    if (value != value) return put("NaN", buf, pos);
+    long bits = Double.doubleToRawLongBits(value);
+    if (bits < 0) {
+      buf[pos++] = '-';
+      value = -value;
+    }
+    if (value < 1e7) {
+      long integral = (long) value;
+      if (integral == value) return put(integral, digits(integral), buf, pos);
+    }
+    if (value == Double.POSITIVE_INFINITY) return put("Infinity", buf, pos);
+    if (!SHORTEST) {
+      String text = Double.toString(value);
+      int length = text.endsWith(".0") ? text.length() - 2 : text.length();
+      text.getChars(0, length, buf, pos);
+      return pos + length;
+    }
+
+    long t = bits & T_MASK;
+    int bq = (int) (bits >>> (P - 1)) & BQ_MASK;
+    if (bq == 0) {
+      return t < C_TINY
+          ? toDecimal(Q_MIN, 10 * t, -1, buf, pos)
+          : toDecimal(Q_MIN, t, 0, buf, pos);
+    }
+    int mq = -Q_MIN + 1 - bq;
+    long c = C_MIN | t;
+    if (0 < mq && mq < P) {
+      // an integer below 2^53, its own digits are already the shortest
+      long f = c >> mq;
+      if (f << mq == c) return toChars(f, 0, buf, pos);
+    }
+    return toDecimal(-mq, c, 0, buf, pos);
+  }
+
+  static String toString(double value) {
+    char[] buf = new char[MAX_LENGTH];
+    return new String(buf, 0, format(value, buf, 0));
+  }
+
+  static StringBuilder append(StringBuilder builder, double value) {
+    long integral = (long) value;
+    // the common case needs no scratch array, StringBuilder writes a long's digits in place
+    if (integral == value
+        && Math.abs(value) < 1e7
+        && (integral != 0 || Double.doubleToRawLongBits(value) == 0)) {
+      return builder.append(integral);
+    }
+    char[] buf = new char[MAX_LENGTH];
+    return builder.append(buf, 0, format(value, buf, 0));
+  }
+
+  // the value is c 2^q, dk corrects the decimal exponent for a significand scaled up by 10
+  private static int toDecimal(int q, long c, int dk, char[] buf, int pos) {
+    int out = (int) c & 0x1;
+    long cb = c << 2;
+    long cbr = cb + 2;
+    long cbl;
+    int k;
+    if (c != C_MIN | q == Q_MIN) {
+      cbl = cb - 2;
+      k = flog10pow2(q);
+    } else {
+      // at a power of two the gap to the next smaller double is half as wide
+      cbl = cb - 1;
+      k = flog10threeQuartersPow2(q);
+    }
+    int h = q + flog2pow10(-k) + 2;
+    long g1 = G[2 * (k - K_MIN)];
+    long g0 = G[2 * (k - K_MIN) + 1];
+
+    long vb = rop(g1, g0, cb << h);
+    long vbl = rop(g1, g0, cbl << h);
+    long vbr = rop(g1, g0, cbr << h);
+
+    long s = vb >> 2;
+    if (s >= 100) {
+      // one digit less, if a multiple of ten lies within the rounding interval
+      long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+      long tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin) return toChars(upin ? sp10 : tp10, k, buf, pos);
+    }
+    long t = s + 1;
+    boolean uin = vbl + out <= s << 2;
+    boolean win = (t << 2) + out <= vbr;
+    if (uin != win) return toChars(uin ? s : t, k + dk, buf, pos);
+    // both are in, the closer one wins and a tie goes to the even one
+    long cmp = vb - (s + t << 1);
+    return toChars(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, buf, pos);
+  }
+
+  // rounds g cp 2^-127 to odd
+  private static long rop(long g1, long g0, long cp) {
+    long x1 = Math.multiplyHigh(g0, cp);
+    long y0 = g1 * cp;
+    long y1 = Math.multiplyHigh(g1, cp);
+    long z = (y0 >>> 1) + x1;
+    long vbp = y1 + (z >>> 63);
+    return vbp | (z & MASK_63) + MASK_63 >>> 63;
+  }
+
+  // the number is f 10^e
+  private static int toChars(long f, int e, char[] buf, int pos) {
+    int len = digits(f);
+    // 0.f 10^e with trailing zeros dropped, n digits left
+    e += len;
+    int n = len;
+    while (f % 10 == 0) {
+      f /= 10;
+      n--;
+    }
+    if (0 < e && e <= 7) {
+      if (n <= e) {
+        pos = put(f, n, buf, pos);
+        while (n++ < e) buf[pos++] = '0';
+        return pos;
+      }
+      put(f, n, buf, pos);
+      System.arraycopy(buf, pos + e, buf, pos + e + 1, n - e);
+      buf[pos + e] = '.';
+      return pos + n + 1;
+    }
+    if (-3 < e && e <= 0) {
+      buf[pos++] = '0';
+      buf[pos++] = '.';
+      for (; e < 0; e++) buf[pos++] = '0';
+      return put(f, n, buf, pos);
+    }
+    // d.ddd, with the first digit moved in front of the point
+    put(f, n, buf, pos + 1);
+    buf[pos] = buf[pos + 1];
+    buf[pos + 1] = '.';
+    pos += n + 1;
+    if (n == 1) buf[pos++] = '0';
+    buf[pos++] = 'E';
+    e--;
+    if (e < 0) {
+      buf[pos++] = '-';
+      e = -e;
+    }
+    return put(e, digits(e), buf, pos);
+  }
+
+  private static int digits(long value) {
+    int len = 1;
+    while (len <= H && value >= POW10[len]) len++;
+    return len;
+  }
+
+  private static int put(long value, int len, char[] buf, int pos) {
+    for (int i = pos + len - 1; i >= pos; i--) {
+      buf[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return pos + len;
+  }
+
+  private static int put(String text, char[] buf, int pos) {
+    text.getChars(0, text.length(), buf, pos);
+    return pos + text.length();
+  }
+
+  private static int flog10pow2(int e) {
+    return (int) (e * 661_971_961_083L >> 41);
+  }
+
+  private static int flog10threeQuartersPow2(int e) {
+    return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+  }
+
+  private static int flog2pow10(int e) {
+    return (int) (e * 913_124_641_741L >> 38);
+  }
+}
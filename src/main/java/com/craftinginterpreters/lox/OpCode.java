@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Instruction set of the bytecode VM. An opcode is one byte and its operands follow it, two bytes
+ * each. The long forms at the end take four byte operands, for the rare chunk whose constants,
+ * globals, locals or call arguments outnumber what two bytes count, or whose jumps go further.
+ * An instruction that fails at runtime finds its token in the chunk's token table, so errors are
+ * reported exactly like the tree walking interpreter does.
+ *
+ * <p>A comparison of two numbers that is followed by {@link #POP_JUMP_IF_FALSE} takes the branch
+ * itself instead of pushing its result.
+ */
+final class OpCode {
+  static final byte CONSTANT = 0; // const
+  static final byte NIL = 1;
+  static final byte TRUE = 2;
+  static final byte FALSE = 3;
+  static final byte POP = 4;
+  static final byte GET_GLOBAL = 5; // global
+  static final byte SET_GLOBAL = 6; // global
+  static final byte DEFINE_GLOBAL = 7; // global
+  static final byte GET_LOCAL = 8; // slot
+  static final byte SET_LOCAL = 9; // slot
+  static final byte DEFINE_LOCAL = 10; // slot
+  static final byte ADD = 11;
+  static final byte SUBTRACT = 12;
+  static final byte MULTIPLY = 13;
+  static final byte DIVIDE = 14;
+  static final byte GREATER = 15;
+  static final byte GREATER_EQUAL = 16;
+  static final byte LESS = 17;
+  static final byte LESS_EQUAL = 18;
+  static final byte EQUAL = 19;
+  static final byte NOT_EQUAL = 20;
+  static final byte NEGATE = 21;
+  static final byte NOT = 22;
+  static final byte PRINT = 23;
+  static final byte JUMP = 24; // offset
+  static final byte JUMP_IF_FALSE = 25; // offset, leaves the condition on the stack
+  static final byte LOOP = 26; // offset
+  static final byte CALL = 27; // argc
+  static final byte RETURN = 28;
+  // slot, const step, offset past the assignment statement that follows, taken when the slot holds
+  // a number
+  static final byte INCREMENT_LOCAL = 29;
+  static final byte POP_JUMP_IF_FALSE = 30; // offset, pops the condition
+  static final byte CONSTANT_LONG = 31;
+  static final byte GET_GLOBAL_LONG = 32;
+  static final byte SET_GLOBAL_LONG = 33;
+  static final byte DEFINE_GLOBAL_LONG = 34;
+  static final byte GET_LOCAL_LONG = 35;
+  static final byte SET_LOCAL_LONG = 36;
+  static final byte DEFINE_LOCAL_LONG = 37;
+  static final byte CALL_LONG = 38;
+  static final byte JUMP_LONG = 39;
+  static final byte JUMP_IF_FALSE_LONG = 40;
+  static final byte POP_JUMP_IF_FALSE_LONG = 41;
+  static final byte LOOP_LONG = 42;
+
+  private OpCode() {}
+}
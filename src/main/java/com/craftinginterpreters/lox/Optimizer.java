@@ -0,0 +1,168 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a parsed program into a smaller equivalent one before it is resolved and run. Operators
+ * whose operands are all literals are folded by running them through the interpreter's own
+ * operator code, so a fold that would fail at runtime (division by zero, a string operand) is left
+ * in place and still fails at runtime with the same error. Groupings disappear, as do branches and
+ * loops whose condition is a constant that never selects them.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>();
+    for (Stmt statement : statements) {
+      Stmt stmt = optimize(statement);
+      if (stmt != null) optimized.add(stmt);
+    }
+    return optimized;
+  }
+
+  // null means the statement does nothing and can be dropped
+  private Stmt optimize(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  // a branch or loop body can not be dropped, it is replaced by an empty block
+  private Stmt optimizeBody(Stmt stmt) {
+    Stmt optimized = optimize(stmt);
+    return optimized != null ? optimized : Stmt.at(stmt.line, new Stmt.Block(new ArrayList<>()));
+  }
+
+  private Expr optimize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private static boolean isConstant(Expr expr) {
+    return expr instanceof Expr.Literal;
+  }
+
+  private static Object valueOf(Expr expr) {
+    return ((Expr.Literal) expr).value;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    return new Expr.Assign(expr.name, optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+    if (isConstant(left) && isConstant(right)) {
+      try {
+        return new Expr.Literal(Interpreter.binary(expr.operator, valueOf(left), valueOf(right)));
+      } catch (RuntimeException error) {
+        // leave it to fail at runtime, in order with everything around it
+      }
+    }
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    List<Expr> arguments = new ArrayList<>();
+    for (Expr argument : expr.arguments) {
+      arguments.add(optimize(argument));
+    }
+    return new Expr.Call(optimize(expr.callee), expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return optimize(expr.expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = optimize(expr.right);
+    if (isConstant(right)) {
+      try {
+        return new Expr.Literal(Interpreter.unary(expr.operator, valueOf(right)));
+      } catch (RuntimeException error) {
+        // negating a non number, leave it to fail at runtime
+      }
+    }
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+    if (isConstant(left)) {
+      boolean truthy = Interpreter.isTruthy(valueOf(left));
+      if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+      return truthy ? right : left;
+    }
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    List<Stmt> statements = optimize(stmt.statements);
+    if (statements.isEmpty()) return null;
+    return Stmt.at(stmt.line, new Stmt.Block(statements));
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = optimize(stmt.expression);
+    if (isConstant(expression)) return null;
+    return Stmt.at(stmt.line, new Stmt.Expression(expression));
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return Stmt.at(stmt.line, new Stmt.Print(optimize(stmt.expression)));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+    return Stmt.at(stmt.line, new Stmt.Var(stmt.name, initializer));
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+    if (isConstant(condition)) {
+      Stmt branch = Interpreter.isTruthy(valueOf(condition)) ? stmt.thenBranch : stmt.elseBranch;
+      return branch == null ? null : optimize(branch);
+    }
+    Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+    return Stmt.at(stmt.line, new Stmt.If(condition, optimizeBody(stmt.thenBranch), elseBranch));
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = optimize(stmt.condition);
+    if (isConstant(condition) && !Interpreter.isTruthy(valueOf(condition))) return null;
+    return Stmt.at(stmt.line, new Stmt.While(condition, optimizeBody(stmt.body)));
+  }
+
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    // optimized once it is parsed
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitImportStmt(Stmt.Import stmt) {
+    // the module is optimized when it is loaded
+    return stmt;
+  }
+}
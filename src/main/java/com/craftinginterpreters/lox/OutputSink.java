@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox;
+
+/** Where print statements go. Lox flushes the sink on exit and before reporting an error. */
+public interface OutputSink {
+  /** Writes the text followed by a line separator. */
+  void println(String text);
+
+  /** Writes the number as Lox shows it followed by a line separator. */
+  default void println(double number) {
+    println(NumberFormatter.toString(number));
+  }
+
+  /** Hands everything buffered so far on to the destination. */
+  void flush();
+}
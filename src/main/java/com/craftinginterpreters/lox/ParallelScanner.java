@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * Scans a large source on all cores. The source is cut into chunks right after a newline and every
+ * chunk is scanned on the common fork join pool as if it started outside any token. A chunk start
+ * can never be inside a comment, comments end at the newline, but it can be inside a multi line
+ * string. The chunk before it then ends with an open string, and the stitching pass rescans from
+ * where that string starts until it reaches a chunk boundary outside a string again. Line numbers
+ * are known up front from a parallel newline count, and errors are reported in source order once
+ * it is known which chunk results are kept. The result is identical to {@link
+ * Scanner#scanTokens()}.
+ */
+class ParallelScanner {
+  private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+  private final String source;
+
+  ParallelScanner(String source) {
+    this.source = source;
+  }
+
+  List<Token> scanTokens() {
+    int[] bounds = split();
+    int chunks = bounds.length - 1;
+    if (chunks == 1) return new Scanner(source).scanTokens();
+    long started = LoxMetrics.start();
+
+    int[] newlines = new int[chunks];
+    IntStream.range(0, chunks).parallel().forEach(i -> newlines[i] = countNewlines(bounds, i));
+    int[] lines = new int[chunks + 1];
+    lines[0] = 1;
+    for (int i = 0; i < chunks; i++) lines[i + 1] = lines[i] + newlines[i];
+
+    Scanner[] scanned = new Scanner[chunks];
+    IntStream.range(0, chunks)
+        .parallel()
+        .forEach(
+            i -> {
+              scanned[i] = new Scanner(source, bounds[i], bounds[i + 1], lines[i]);
+              scanned[i].scanRange();
+            });
+
+    List<Token> tokens = new ArrayList<>();
+    List<Scanner.DeferredError> errors = new ArrayList<>();
+    for (int i = 0; i < chunks; ) {
+      Scanner chunk = scanned[i];
+      int next = i + 1;
+      // a string that runs on invalidates the chunks it covers, rescan until one starts clean
+      while (chunk.openString() >= 0) {
+        tokens.addAll(chunk.tokens());
+        errors.addAll(chunk.errors());
+        chunk = new Scanner(source, chunk.openString(), bounds[next + 1], chunk.openLine());
+        chunk.scanRange();
+        next++;
+      }
+      tokens.addAll(chunk.tokens());
+      errors.addAll(chunk.errors());
+      i = next;
+    }
+    int column = source.length() - source.lastIndexOf('\n');
+    tokens.add(new Token(EOF, "", null, lines[chunks], column));
+    for (Scanner.DeferredError error : errors) Lox.error(error.line, error.column, error.message);
+    if (LoxMetrics.ENABLED) LoxMetrics.scanned(tokens.size(), started);
+    return tokens;
+  }
+
+  // chunk boundaries, each chunk but the last ends right after a newline
+  private int[] split() {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    int size = Math.max(MIN_CHUNK_SIZE, source.length() / (parallelism * 4));
+    List<Integer> bounds = new ArrayList<>();
+    bounds.add(0);
+    int position = size;
+    while (position < source.length()) {
+      int newline = source.indexOf('\n', position - 1);
+      if (newline < 0 || newline + 1 >= source.length()) break;
+      bounds.add(newline + 1);
+      position = newline + 1 + size;
+    }
+    bounds.add(source.length());
+    int[] result = new int[bounds.size()];
+    for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+    return result;
+  }
+
+  private int countNewlines(int[] bounds, int chunk) {
+    int count = 0;
+    for (int i = bounds[chunk]; i < bounds[chunk + 1]; i++) {
+      if (source.charAt(i) == '\n') count++;
+    }
+    return count;
+  }
+}
@@ -2,6 +2,7 @@ package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -19,33 +20,116 @@ public class Parser {
     return new Stmt.If(condition, thenBranch, elseBranch);
   }
 
-  private static class ParserError extends RuntimeException {}
-
-  private final List<Token> tokens;
+  // only unwinds to where the parser synchronizes, so it has no stack trace to fill in
+  private static class ParserError extends RuntimeException {
+    ParserError() {
+      super(null, null, false, false);
+    }
+  }
 
-  private int current = 0;
+  // tokens are pulled on demand, the parser only ever looks at the current and the previous one
+  private final TokenSource tokens;
+  private Token current;
+  private Token previous = null;
+  // lazy: block bodies are only brace matched, validate: and still parsed once for their errors
+  private final boolean lazy;
+  private final boolean validate;
+  private final ErrorReporter reporter;
+
+  Parser(TokenSource tokens) {
+    this(tokens, false, false);
+  }
 
   Parser(List<Token> tokens) {
+    this(fromList(tokens));
+  }
+
+  Parser(List<Token> tokens, boolean lazy, boolean validate) {
+    this(fromList(tokens), lazy, validate);
+  }
+
+  Parser(TokenSource tokens, boolean lazy, boolean validate) {
+    this(tokens, lazy, validate, Lox.CONSOLE);
+  }
+
+  Parser(List<Token> tokens, ErrorReporter reporter) {
+    this(fromList(tokens), false, false, reporter);
+  }
+
+  Parser(TokenSource tokens, ErrorReporter reporter) {
+    this(tokens, false, false, reporter);
+  }
+
+  private Parser(TokenSource tokens, boolean lazy, boolean validate, ErrorReporter reporter) {
     this.tokens = tokens;
+    this.current = tokens.nextToken();
+    this.lazy = lazy;
+    this.validate = validate;
+    this.reporter = reporter;
+  }
+
+  private static TokenSource fromList(List<Token> tokens) {
+    Iterator<Token> iterator = tokens.iterator();
+    Token eof = tokens.get(tokens.size() - 1);
+    return () -> iterator.hasNext() ? iterator.next() : eof;
+  }
+
+  /** Parses the body of a {@link Stmt.Lazy} on first use, null when it has a syntax error. */
+  static Stmt.Block parseLazy(Stmt.Lazy stmt, boolean lazy) {
+    Parser parser = new Parser(fromList(stmt.tokens), lazy, false);
+    try {
+      return Stmt.at(stmt.brace.line, new Stmt.Block(parser.block()));
+    } catch (ParserError error) {
+      return null;
+    }
   }
 
   List<Stmt> parse() {
+    long started = LoxMetrics.start();
     List<Stmt> statements = new ArrayList<>();
     while (!isAtEnd()) {
       statements.add(declaration());
     }
+    if (LoxMetrics.ENABLED) {
+      LoxMetrics.PARSED.add(statements.size());
+      LoxMetrics.PARSE_NANOS.add(System.nanoTime() - started);
+    }
     return statements;
   }
 
-  private Stmt declaration() {
+  // one at a time also for IncrementalDocument, which needs to know where each one ends
+  Stmt declaration() {
     try {
       if (match(VAR)) return varDeclaration();
       return statement();
     } catch (ParserError error) {
+      synchronize();
       return null;
     }
   }
 
+  // skips past the statement with the error, the next one is parsed as if there was none
+  private void synchronize() {
+    advance();
+    while (!isAtEnd()) {
+      if (previous().type == SEMICOLON) return;
+      switch (peek().type) {
+        case CLASS:
+        case FUN:
+        case VAR:
+        case FOR:
+        case IF:
+        case WHILE:
+        case PRINT:
+        case RETURN:
+        case IMPORT:
+          return;
+        default:
+          advance();
+      }
+    }
+  }
+
   private Stmt varDeclaration() {
     Token name = consume(IDENTIFIER, "Expected variable name. ");
     Expr initializer = null;
@@ -53,19 +137,23 @@ public class Parser {
       initializer = expression();
     }
     consume(SEMICOLON, "Expected ; after variable declaration");
-    return new Stmt.Var(name, initializer);
+    return Stmt.at(name.line, new Stmt.Var(name, initializer));
   }
 
   private Stmt statement() {
-    if (match(IF)) return ifStatement();
-    if (match(PRINT)) return printStatement();
-    if (match(WHILE)) return whileStatement();
-    if (match(LEFT_BRACE)) return new Stmt.Block(block());
+    int line = peek().line;
+    if (match(IF)) return Stmt.at(line, ifStatement());
+    if (match(PRINT)) return Stmt.at(line, printStatement());
+    if (match(WHILE)) return Stmt.at(line, whileStatement());
+    if (match(LEFT_BRACE)) return Stmt.at(line, lazy ? lazyBlock() : new Stmt.Block(block()));
     if (match(FOR)) return forStatement();
-    return expressionStatement();
+    if (match(IMPORT)) return Stmt.at(line, importStatement());
+    return Stmt.at(line, expressionStatement());
   }
 
+  // every statement the loop desugars into is on the line of the for keyword
   private Stmt forStatement() {
+    int line = previous().line;
     consume(LEFT_PAREN, "Expected ( after for loop ");
     Stmt intializer = null;
     if (match(SEMICOLON)) {
@@ -73,7 +161,7 @@ public class Parser {
     } else if (match(VAR)) {
       intializer = varDeclaration();
     } else {
-      intializer = expressionStatement();
+      intializer = Stmt.at(line, expressionStatement());
     }
     Expr condition = null;
     if (!match(SEMICOLON)) {
@@ -87,16 +175,25 @@ public class Parser {
     consume(RIGHT_PAREN, "Expected ) after the for loop ");
     Stmt body = statement();
     if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
+      Stmt step = Stmt.at(line, new Stmt.Expression(increment));
+      body = Stmt.at(line, new Stmt.Block(Arrays.asList(body, step)));
     }
     if (condition == null) condition = new Expr.Literal(true);
-    body = new Stmt.While(condition, body);
+    body = Stmt.at(line, new Stmt.While(condition, body));
     if (intializer != null) {
-      body = new Stmt.Block(Arrays.asList(intializer, body));
+      body = Stmt.at(line, new Stmt.Block(Arrays.asList(intializer, body)));
     }
     return body;
   }
 
+  // the path is loaded before the program runs, see ModuleLoader
+  private Stmt importStatement() {
+    Token keyword = previous();
+    Token path = consume(STRING, "Expected a module path after import");
+    consume(SEMICOLON, "Expected ; after the module path");
+    return new Stmt.Import(keyword, path);
+  }
+
   private Stmt whileStatement() {
     consume(LEFT_PAREN, "Expected ( during the while loop ");
     Expr condition = expression();
@@ -105,6 +202,25 @@ public class Parser {
     return new Stmt.While(condition, body);
   }
 
+  // collects the tokens up to the matching brace, parseLazy turns them into a block later
+  private Stmt lazyBlock() {
+    Token brace = previous();
+    List<Token> body = new ArrayList<>();
+    int depth = 1;
+    while (depth > 0 && !isAtEnd()) {
+      Token token = advance();
+      if (token.type == LEFT_BRACE) depth++;
+      if (token.type == RIGHT_BRACE) depth--;
+      body.add(token);
+    }
+    if (depth > 0) throw error(peek(), "Expect } after a block");
+    body.add(new Token(EOF, "", null, previous().line));
+    if (validate) {
+      new Parser(fromList(body), false, false, reporter).block();
+    }
+    return new Stmt.Lazy(brace, body);
+  }
+
   private List<Stmt> block() {
     List<Stmt> statements = new ArrayList<>();
     while (!check(RIGHT_BRACE) && !isAtEnd()) {
@@ -131,7 +247,7 @@ public class Parser {
   }
 
   private Expr assignment() {
-    Expr expr = or();
+    Expr expr = parsePrecedence(Precedence.OR);
     if (match(EQUAL)) {
       Token equals = previous();
       Expr value = assignment();
@@ -144,114 +260,164 @@ public class Parser {
     return expr;
   }
 
-  private Expr or() {
-    /*
-        expression     → assignment ;
-    assignment     → IDENTIFIER "=" assignment
-                   | logic_or ;
-    logic_or       → logic_and ( "or" logic_and )* ;
-    logic_and      → equality ( "and" equality )* ;
-         */
-    Expr and = and();
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      and = new Expr.Logical(and, operator, right);
-    }
-    return and;
+  /*
+      Binary, logical, unary and call expressions are parsed by precedence climbing. Each token
+      type has a rule saying how it starts an expression (prefix), how it continues one (infix) and
+      how tightly that infix operator binds:
+
+      logic_or   → logic_and ( "or" logic_and )* ;
+      logic_and  → equality ( "and" equality )* ;
+      equality   → comparison ( ( "!=" | "==" ) comparison )* ;
+      comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
+      term       → factor ( ( "-" | "+" ) factor )* ;
+      factor     → unary ( ( "/" | "*" ) unary )* ;
+      unary      → ( "!" | "-" ) unary | call ;
+      call       → primary ( "(" arguments? ")" )* ;
+  */
+  private enum Precedence {
+    NONE,
+    ASSIGNMENT,
+    OR,
+    AND,
+    EQUALITY,
+    COMPARISON,
+    TERM,
+    FACTOR,
+    UNARY,
+    CALL,
+    PRIMARY
+  }
+
+  private interface PrefixRule {
+    Expr parse(Parser parser, Token token);
   }
 
-  private Expr and() {
-    Expr expr = equality();
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
+  private interface InfixRule {
+    Expr parse(Parser parser, Expr left, Token token);
+  }
+
+  private static class Rule {
+    final PrefixRule prefix;
+    final InfixRule infix;
+    final Precedence precedence;
+
+    Rule(PrefixRule prefix, InfixRule infix, Precedence precedence) {
+      this.prefix = prefix;
+      this.infix = infix;
+      this.precedence = precedence;
     }
-    return expr;
   }
 
-  private Expr equality() {
-    Expr expr = comparison();
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
+  private static final Rule[] rules = new Rule[TokenType.values().length];
+  private static final Precedence[] precedences = Precedence.values();
+
+  static {
+    for (TokenType type : TokenType.values()) rule(type, null, null, Precedence.NONE);
+    rule(LEFT_PAREN, Parser::grouping, Parser::call, Precedence.CALL);
+    rule(MINUS, Parser::unary, Parser::binary, Precedence.TERM);
+    rule(PLUS, null, Parser::binary, Precedence.TERM);
+    rule(SLASH, null, Parser::binary, Precedence.FACTOR);
+    rule(STAR, null, Parser::binary, Precedence.FACTOR);
+    rule(BANG, Parser::unary, null, Precedence.NONE);
+    rule(BANG_EQUAL, null, Parser::binary, Precedence.EQUALITY);
+    rule(EQUAL_EQUAL, null, Parser::binary, Precedence.EQUALITY);
+    rule(GREATER, null, Parser::binary, Precedence.COMPARISON);
+    rule(GREATER_EQUAL, null, Parser::binary, Precedence.COMPARISON);
+    rule(LESS, null, Parser::binary, Precedence.COMPARISON);
+    rule(LESS_EQUAL, null, Parser::binary, Precedence.COMPARISON);
+    rule(AND, null, Parser::logical, Precedence.AND);
+    rule(OR, null, Parser::logical, Precedence.OR);
+    rule(IDENTIFIER, Parser::variable, null, Precedence.NONE);
+    rule(STRING, Parser::literal, null, Precedence.NONE);
+    rule(NUMBER, Parser::literal, null, Precedence.NONE);
+    rule(FALSE, Parser::literal, null, Precedence.NONE);
+    rule(TRUE, Parser::literal, null, Precedence.NONE);
+    rule(NIL, Parser::literal, null, Precedence.NONE);
+  }
+
+  private static void rule(
+      TokenType type, PrefixRule prefix, InfixRule infix, Precedence precedence) {
+    rules[type.ordinal()] = new Rule(prefix, infix, precedence);
+  }
+
+  // parses an expression whose operators all bind at least as tightly as precedence
+  private Expr parsePrecedence(Precedence precedence) {
+    PrefixRule prefix = rules[peek().type.ordinal()].prefix;
+    if (prefix == null) throw error(peek(), "Expect expression");
+    Expr expr = prefix.parse(this, advance());
+    while (precedence.compareTo(rules[peek().type.ordinal()].precedence) <= 0) {
+      Token token = advance();
+      expr = rules[token.type.ordinal()].infix.parse(this, expr, token);
     }
     return expr;
   }
 
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if (check(type)) {
-        advance();
-        return true;
-      }
-    }
-    return false;
+  // operands of a left associative operator bind one level tighter than the operator
+  private Expr operand(Token operator) {
+    Precedence precedence = rules[operator.type.ordinal()].precedence;
+    return parsePrecedence(precedences[precedence.ordinal() + 1]);
   }
 
-  private Token advance() {
-    if (!isAtEnd()) current++;
-    return previous();
+  private Expr binary(Expr left, Token operator) {
+    return new Expr.Binary(left, operator, operand(operator));
   }
 
-  private boolean check(TokenType type) {
-    if (isAtEnd()) return false;
-    return peek().type == type;
+  private Expr logical(Expr left, Token operator) {
+    return new Expr.Logical(left, operator, operand(operator));
   }
 
-  private boolean isAtEnd() {
-    return peek().type == EOF;
+  private Expr call(Expr callee, Token paren) {
+    return finishCall(callee);
   }
 
-  private Expr comparison() {
-    Expr term = term();
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      term = new Expr.Binary(term, operator, right);
-    }
-    return term;
+  private Expr unary(Token operator) {
+    return new Expr.Unary(operator, parsePrecedence(Precedence.UNARY));
   }
 
-  private Expr term() {
-    Expr factor = factor();
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      factor = new Expr.Binary(factor, operator, right);
-    }
-    return factor;
+  private Expr grouping(Token paren) {
+    Expr expr = expression();
+    consume(RIGHT_PAREN, "Expect ')' after expression");
+    return new Expr.Grouping(expr);
   }
 
-  private Expr factor() {
-    Expr expr = unary();
-    while (match(SLASH, STAR)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-    return expr;
+  private Expr variable(Token name) {
+    return new Expr.Variable(name);
   }
 
-  private Expr unary() {
-    if (match(BANG, MINUS)) {
-      Token operator = previous();
-      Expr expr = unary();
-      return new Expr.Unary(operator, expr);
+  private Expr literal(Token token) {
+    switch (token.type) {
+      case FALSE:
+        return new Expr.Literal(false);
+      case TRUE:
+        return new Expr.Literal(true);
+      case NIL:
+        return new Expr.Literal(null);
+      default:
+        return new Expr.Literal(token.literal);
     }
-    return call();
   }
 
-  private Expr call() {
-    Expr expr = primary();
-    while (true) {
-      if (match(LEFT_PAREN)) {
-        expr = finishCall(expr);
-      } else break;
+  private boolean match(TokenType type) {
+    if (!check(type)) return false;
+    advance();
+    return true;
+  }
+
+  private Token advance() {
+    if (!isAtEnd()) {
+      previous = current;
+      current = tokens.nextToken();
     }
-    return expr;
+    return previous();
+  }
+
+  private boolean check(TokenType type) {
+    if (isAtEnd()) return false;
+    return peek().type == type;
+  }
+
+  boolean isAtEnd() {
+    return peek().type == EOF;
   }
 
   private Expr finishCall(Expr callee) {
@@ -268,39 +434,21 @@ public class Parser {
     return new Expr.Call(callee, paren, arguments);
   }
 
-  private Expr primary() {
-    if (match(FALSE)) return new Expr.Literal(false);
-    if (match(TRUE)) return new Expr.Literal(true);
-    if (match(NIL)) return new Expr.Literal(null);
-    if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
-    }
-    if (match(IDENTIFIER)) {
-      return new Expr.Variable(previous());
-    }
-    if (match(LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression");
-      return new Expr.Grouping(expr);
-    }
-    throw error(peek(), "Expect expression");
-  }
-
   private Token consume(TokenType type, String message) {
     if (check(type)) return advance();
     throw error(peek(), message);
   }
 
   private ParserError error(Token token, String message) {
-    Lox.error(token, message);
+    reporter.report(Diagnostic.at(token, message));
     return new ParserError();
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return current;
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
+    return previous;
   }
 }
@@ -0,0 +1,162 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Interpreter for --profile, it counts and times every statement it executes. A statement's
+ * inclusive time covers the statements nested in it, its exclusive time only what it does itself,
+ * which includes evaluating its expressions. Lox has no functions, so the nesting seen at runtime
+ * is the nesting of the syntax tree and each statement is a frame of its own in the collapsed
+ * stacks. Without --profile this class is never loaded and execute and evaluate are not
+ * overridden.
+ */
+class ProfilingInterpreter extends Interpreter {
+  private static final int TOP = 20;
+
+  private final Map<Stmt, Entry> entries = new IdentityHashMap<>();
+  // the statements being executed, with when they started and how long their finished children took
+  private Entry[] stack = new Entry[64];
+  private long[] starts = new long[64];
+  private long[] nested = new long[64];
+  private int depth = 0;
+
+  ProfilingInterpreter(OutputSink out) {
+    super(out);
+  }
+
+  @Override
+  void execute(Stmt stmt) {
+    Entry entry = entries.get(stmt);
+    if (entry == null) {
+      entry = new Entry(stmt, depth > 0 ? stack[depth - 1] : null);
+      entries.put(stmt, entry);
+    }
+    if (depth == stack.length) {
+      stack = Arrays.copyOf(stack, depth * 2);
+      starts = Arrays.copyOf(starts, depth * 2);
+      nested = Arrays.copyOf(nested, depth * 2);
+    }
+    int frame = depth++;
+    stack[frame] = entry;
+    nested[frame] = 0;
+    starts[frame] = System.nanoTime();
+    try {
+      super.execute(stmt);
+    } finally {
+      long elapsed = System.nanoTime() - starts[frame];
+      depth = frame;
+      entry.count++;
+      entry.inclusive += elapsed;
+      entry.exclusive += elapsed - nested[frame];
+      if (frame > 0) nested[frame - 1] += elapsed;
+    }
+  }
+
+  @Override
+  Object evaluate(Expr expr) {
+    if (depth > 0) stack[depth - 1].evaluations++;
+    return super.evaluate(expr);
+  }
+
+  /** Prints the lines and statements that took the most exclusive time. */
+  void report(PrintStream out) {
+    List<Entry> statements = new ArrayList<>(entries.values());
+    Map<Integer, Entry> byLine = new TreeMap<>();
+    long total = 0;
+    for (Entry entry : statements) {
+      Entry line = byLine.computeIfAbsent(entry.stmt.line, key -> new Entry(entry.stmt, null));
+      line.count += entry.count;
+      line.evaluations += entry.evaluations;
+      line.exclusive += entry.exclusive;
+      // a statement nested in one on the same line is already in that one's inclusive time
+      if (entry.parent == null || entry.parent.stmt.line != entry.stmt.line) {
+        line.inclusive += entry.inclusive;
+      }
+      if (entry.parent == null) total += entry.inclusive;
+    }
+    List<Entry> lines = new ArrayList<>(byLine.values());
+    Comparator<Entry> hottest = Comparator.comparingLong((Entry entry) -> entry.exclusive);
+    statements.sort(hottest.reversed());
+    lines.sort(hottest.reversed());
+
+    out.println(
+        String.format(
+            "Profile: %d statements on %d lines, %.3f ms",
+            statements.size(), lines.size(), total / 1e6));
+    out.println("Hot lines by exclusive time:");
+    out.println("    line         runs        evals   exclusive ms   inclusive ms");
+    for (Entry line : lines.subList(0, Math.min(TOP, lines.size()))) {
+      out.println(
+          String.format(
+              "  %6d %12d %12d %14.3f %14.3f",
+              line.stmt.line,
+              line.count,
+              line.evaluations,
+              line.exclusive / 1e6,
+              line.inclusive / 1e6));
+    }
+    out.println("Hot statements by exclusive time:");
+    out.println("    line  statement          runs        evals   exclusive ms   inclusive ms");
+    for (Entry entry : statements.subList(0, Math.min(TOP, statements.size()))) {
+      out.println(
+          String.format(
+              "  %6d  %-10s %12d %12d %14.3f %14.3f",
+              entry.stmt.line,
+              kind(entry.stmt),
+              entry.count,
+              entry.evaluations,
+              entry.exclusive / 1e6,
+              entry.inclusive / 1e6));
+    }
+  }
+
+  /**
+   * Writes one line per statement, its enclosing statements and itself separated by ';' and
+   * followed by its exclusive time in microseconds, the input flamegraph.pl and speedscope take.
+   */
+  void writeCollapsed(Path file) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (Entry entry : entries.values()) {
+      long micros = entry.exclusive / 1000;
+      if (micros == 0) continue;
+      lines.add(frames(entry) + " " + micros);
+    }
+    lines.sort(null);
+    Files.write(file, lines, StandardCharsets.UTF_8);
+  }
+
+  private static String frames(Entry entry) {
+    String frame = kind(entry.stmt) + ":" + entry.stmt.line;
+    return entry.parent == null ? frame : frames(entry.parent) + ";" + frame;
+  }
+
+  private static String kind(Stmt stmt) {
+    return stmt.getClass().getSimpleName().toLowerCase();
+  }
+
+  private static class Entry {
+    final Stmt stmt;
+    // the statement it runs in, null at the top level
+    final Entry parent;
+    long count;
+    long evaluations;
+    long inclusive;
+    long exclusive;
+
+    Entry(Stmt stmt, Entry parent) {
+      this.stmt = stmt;
+      this.parent = parent;
+    }
+  }
+}
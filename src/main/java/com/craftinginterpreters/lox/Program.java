@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A script that has been parsed, optimized and resolved, made by {@link Session#parse}. The
+ * resolver builds the tree with its slots in final fields, and the script is parsed eagerly so no
+ * lazy block is filled in later. The interpreter a session runs it with only reads the tree, so
+ * one program can be run by any number of sessions, also at the same time on different threads.
+ * The same goes for the modules it imports, each session runs them in globals of its own.
+ */
+public final class Program {
+  // final, so a thread that is handed the program sees the tree as it was resolved
+  final List<Stmt> statements;
+  // the module each import names, the script's own and those of the modules
+  final Map<Stmt.Import, ModuleLoader.Module> modules;
+
+  Program(List<Stmt> statements, Map<Stmt.Import, ModuleLoader.Module> modules) {
+    this.statements = Collections.unmodifiableList(statements);
+    this.modules = Collections.unmodifiableMap(modules);
+  }
+}
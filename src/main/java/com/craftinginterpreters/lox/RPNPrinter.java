@@ -11,6 +11,14 @@ public class RPNPrinter implements Expr.Visitor<String> {
     return printPolish(expr.operator.lexeme, expr.left, expr.right);
   }
 
+  @Override
+  public String visitCallExpr(Expr.Call expr) {
+    Expr[] exprs = new Expr[expr.arguments.size() + 1];
+    exprs[0] = expr.callee;
+    for (int i = 0; i < expr.arguments.size(); i++) exprs[i + 1] = expr.arguments.get(i);
+    return printPolish("call", exprs);
+  }
+
   @Override
   public String visitGroupingExpr(Expr.Grouping expr) {
     return printPolish("", expr.expression);
@@ -0,0 +1,169 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static pass run between the parser and the interpreter. Every local variable gets a slot in the
+ * environment of the block that declares it, and every reference to it gets the (depth, slot) pair
+ * the interpreter uses to index it directly. The tree comes back rebuilt with those in the final
+ * fields of its nodes, the one it was given is left as it was. Names that are not found in any
+ * enclosing block are left at depth -1 and looked up in the globals by name.
+ */
+class Resolver implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  private final List<Map<String, Integer>> scopes;
+
+  Resolver() {
+    this.scopes = new ArrayList<>();
+  }
+
+  private Resolver(List<Map<String, Integer>> scopes) {
+    this.scopes = scopes;
+  }
+
+  List<Stmt> resolve(List<Stmt> statements) {
+    List<Stmt> resolved = new ArrayList<>(statements.size());
+    for (Stmt statement : statements) {
+      resolved.add(resolve(statement));
+    }
+    return resolved;
+  }
+
+  Stmt resolve(Stmt stmt) {
+    return stmt == null ? null : stmt.accept(this);
+  }
+
+  private Expr resolve(Expr expr) {
+    return expr == null ? null : expr.accept(this);
+  }
+
+  private int declare(Token name) {
+    Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+    // redeclaring a name in the same block reuses its slot, as the map based environment did
+    Integer slot = scope.get(name.lexeme);
+    if (slot == null) {
+      slot = scope.size();
+      scope.put(name.lexeme, slot);
+    }
+    return slot;
+  }
+
+  // index of the innermost block declaring the name, -1 when it has to be a global
+  private int scopeOf(Token name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      if (scopes.get(i).containsKey(name.lexeme)) return i;
+    }
+    return -1;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = resolve(expr.value);
+    int scope = scopeOf(expr.name);
+    if (scope < 0) return new Expr.Assign(expr.name, value, -1, 0, expr.step);
+    int depth = scopes.size() - 1 - scope;
+    int slot = scopes.get(scope).get(expr.name.lexeme);
+    return new Expr.Assign(expr.name, value, depth, slot, expr.step);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = resolve(expr.left);
+    return new Expr.Binary(left, expr.operator, resolve(expr.right));
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = resolve(expr.callee);
+    List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+    for (Expr argument : expr.arguments) {
+      arguments.add(resolve(argument));
+    }
+    return new Expr.Call(callee, expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return new Expr.Grouping(resolve(expr.expression));
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    return new Expr.Unary(expr.operator, resolve(expr.right));
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = resolve(expr.left);
+    return new Expr.Logical(left, expr.operator, resolve(expr.right));
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    int scope = scopeOf(expr.name);
+    if (scope < 0) return expr;
+    int depth = scopes.size() - 1 - scope;
+    return new Expr.Variable(expr.name, depth, scopes.get(scope).get(expr.name.lexeme));
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    scopes.add(new HashMap<>());
+    List<Stmt> statements = resolve(stmt.statements);
+    int slots = scopes.remove(scopes.size() - 1).size();
+    return Stmt.at(stmt.line, new Stmt.Block(statements, slots));
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    return Stmt.at(stmt.line, new Stmt.Expression(resolve(stmt.expression)));
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return Stmt.at(stmt.line, new Stmt.Print(resolve(stmt.expression)));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = resolve(stmt.initializer);
+    // globals stay in the name keyed map so the repl can keep redefining them
+    int slot = scopes.isEmpty() ? -1 : declare(stmt.name);
+    return Stmt.at(stmt.line, new Stmt.Var(stmt.name, initializer, slot));
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = resolve(stmt.condition);
+    Stmt thenBranch = resolve(stmt.thenBranch);
+    return Stmt.at(stmt.line, new Stmt.If(condition, thenBranch, resolve(stmt.elseBranch)));
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = resolve(stmt.condition);
+    return Stmt.at(stmt.line, new Stmt.While(condition, resolve(stmt.body)));
+  }
+
+  @Override
+  public Stmt visitLazyStmt(Stmt.Lazy stmt) {
+    // the body is resolved once it is parsed, against the blocks visible from here
+    List<Map<String, Integer>> visible = new ArrayList<>();
+    for (Map<String, Integer> scope : scopes) visible.add(new HashMap<>(scope));
+    return Stmt.at(stmt.line, new Stmt.Lazy(stmt.brace, stmt.tokens, new Resolver(visible)));
+  }
+
+  @Override
+  public Stmt visitImportStmt(Stmt.Import stmt) {
+    // a module is resolved on its own when it is loaded, it only defines globals. the node is kept
+    // as it is since the modules the loader linked are looked up by it
+    return stmt;
+  }
+}
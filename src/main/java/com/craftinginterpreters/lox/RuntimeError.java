@@ -4,7 +4,9 @@ public class RuntimeError extends RuntimeException {
   final Token token;
 
   public RuntimeError(Token operator, String message) {
-    super(message);
+    // the script's line is what the error is about, where the interpreter was in Java is not, and
+    // scripts that fail often would spend most of their time filling in stack traces
+    super(message, null, false, false);
     this.token = operator;
   }
 }
@@ -8,12 +8,21 @@ import java.util.Map;
 import static com.craftinginterpreters.lox.TokenType.*;
 
 public class Scanner {
-  private final String source;
+  // a String but for IncrementalDocument's text
+  private final CharSequence source;
   private final List<Token> tokens = new ArrayList<>();
   private int start = 0;
   private int current = 0;
   private int line = 1;
-  private static final Map<String, TokenType> keywords;
+  // offset the line starts at, columns are counted from there
+  private int lineStart = 0;
+  // scanning a range stops at end, errors are collected instead of reported
+  private final int end;
+  private final List<DeferredError> errors;
+  private final ErrorReporter reporter;
+  private int openString = -1;
+  private int openLine = 0;
+  static final Map<String, TokenType> keywords;
 
   static {
     keywords = new HashMap<>();
@@ -24,6 +33,7 @@ public class Scanner {
     keywords.put("for", FOR);
     keywords.put("fun", FUN);
     keywords.put("if", IF);
+    keywords.put("import", IMPORT);
     keywords.put("nil", NIL);
     keywords.put("or", OR);
     keywords.put("print", PRINT);
@@ -36,17 +46,100 @@ public class Scanner {
     keywords.put("false", FALSE);
   }
 
+  /** An error found while scanning a range, reported once the range is known to be needed. */
+  static class DeferredError {
+    final int line;
+    final int column;
+    final String message;
+
+    DeferredError(int line, int column, String message) {
+      this.line = line;
+      this.column = column;
+      this.message = message;
+    }
+  }
+
   public Scanner(String source) {
+    this(source, Lox.CONSOLE);
+  }
+
+  Scanner(String source, ErrorReporter reporter) {
+    this.source = source;
+    this.end = source.length();
+    this.errors = null;
+    this.reporter = reporter;
+  }
+
+  /** Scans source from start up to end, starting out on the given line. */
+  Scanner(CharSequence source, int start, int end, int line) {
     this.source = source;
+    this.current = start;
+    this.end = end;
+    this.line = line;
+    // a range can start in the middle of a line, a string the parallel scanner scans again
+    int lineStart = start;
+    while (lineStart > 0 && source.charAt(lineStart - 1) != '\n') lineStart--;
+    this.lineStart = lineStart;
+    this.errors = new ArrayList<>();
+    this.reporter = null;
   }
 
   public List<Token> scanTokens() {
-    while (!isAtEnd()) {
+    long started = LoxMetrics.start();
+    scanRange();
+    tokens.add(new Token(EOF, "", null, line, current - lineStart + 1));
+    if (LoxMetrics.ENABLED) LoxMetrics.scanned(tokens.size(), started);
+    return tokens;
+  }
+
+  /**
+   * Scans without adding an EOF token. When a string is still open where a range ends the scan
+   * stops there, see {@link #openString()}.
+   */
+  List<Token> scanRange() {
+    while (!isAtEnd() && openString < 0) {
       // we are at the beginning of the next lexeme
       start = current;
       scanToken();
     }
-    tokens.add(new Token(EOF, "", null, line));
+    return tokens;
+  }
+
+  /**
+   * Scans one lexeme, a token, whitespace or a comment, and returns the offset after it. {@link
+   * IncrementalDocument} scans this way so it can stop once it is back at a token it had before.
+   */
+  int scanLexeme() {
+    start = current;
+    scanToken();
+    return current;
+  }
+
+  /** Line the scan is on. */
+  int line() {
+    return line;
+  }
+
+  /** Column the scan is at. */
+  int column() {
+    return current - lineStart + 1;
+  }
+
+  /** Offset of a string that runs past the end of the range, or -1. */
+  int openString() {
+    return openString;
+  }
+
+  /** Line the open string starts on. */
+  int openLine() {
+    return openLine;
+  }
+
+  List<DeferredError> errors() {
+    return errors;
+  }
+
+  List<Token> tokens() {
     return tokens;
   }
 
@@ -109,6 +202,7 @@ public class Scanner {
         break;
       case '\n':
         line++;
+        lineStart = current;
         break;
       case '"':
         parseString();
@@ -121,7 +215,7 @@ public class Scanner {
           parseIdentifier();
           break;
         } else {
-          Lox.error(line, "Unexpected character");
+          error(line, start - lineStart + 1, "Unexpected character");
         }
         break;
     }
@@ -129,7 +223,7 @@ public class Scanner {
 
   private void parseIdentifier() {
     while (Character.isAlphabetic(peek())) advance();
-    String text = source.substring(start, current);
+    String text = source.subSequence(start, current).toString();
     TokenType type = keywords.get(text);
     if (type == null) type = IDENTIFIER;
     addToken(type);
@@ -141,26 +235,38 @@ public class Scanner {
       advance();
       while (Character.isDigit(peek())) advance();
     }
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    addToken(NUMBER, Double.parseDouble(source.subSequence(start, current).toString()));
   }
 
   private char peekNext() {
-    if (current + 1 >= source.length()) return '\0';
+    if (current + 1 >= end) return '\0';
     return source.charAt(current + 1);
   }
 
   private void parseString() {
+    int startLine = line;
+    int column = start - lineStart + 1;
     while (peek() != '"' && !isAtEnd()) {
-      if (peek() == '\n') line++;
+      if (peek() == '\n') {
+        line++;
+        lineStart = current + 1;
+      }
       advance();
     }
+    if (isAtEnd() && end < source.length()) {
+      // the string goes on in the next range
+      openString = start;
+      openLine = startLine;
+      return;
+    }
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string");
+      error(line, current - lineStart + 1, "Unterminated string");
       return;
     }
     advance();
-    String value = source.substring(start + 1, current - 1);
-    addToken(STRING, value);
+    String value = source.subSequence(start + 1, current - 1).toString();
+    String text = source.subSequence(start, current).toString();
+    tokens.add(new Token(STRING, text, value, line, column));
   }
 
   private char peek() {
@@ -184,11 +290,19 @@ public class Scanner {
   }
 
   private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    String text = source.subSequence(start, current).toString();
+    tokens.add(new Token(type, text, literal, line, start - lineStart + 1));
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= end;
+  }
+
+  private void error(int line, int column, String message) {
+    if (errors == null) {
+      reporter.report(Diagnostic.at(line, column, message));
+    } else {
+      errors.add(new DeferredError(line, column, message));
+    }
   }
 }
@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One runtime for Lox scripts, with globals, error state and output of its own, where {@link Lox}
+ * keeps all of those in static fields for the one script of the command line. Sessions share
+ * nothing that changes, so any number of them can run on different threads, each on one thread at
+ * a time. A script runs in the tree walking interpreter, the compilers and the command line's
+ * --profile and --coverage are not available here.
+ *
+ * <p>Globals a script defines stay defined for the next script the session runs, the way lines
+ * typed into the REPL see each other.
+ */
+public final class Session {
+  private final OutputSink out;
+  private final Diagnostics diagnostics = new Diagnostics();
+  private final Interpreter interpreter;
+  private int status = 0;
+
+  private final ErrorReporter reporter =
+      diagnostic -> {
+        if (LoxMetrics.ENABLED && diagnostic.isRuntime()) LoxMetrics.RUNTIME_ERRORS.increment();
+        diagnostics.report(diagnostic);
+      };
+
+  public Session(OutputSink out) {
+    this.out = out;
+    this.interpreter = new Interpreter(out, reporter);
+  }
+
+  /**
+   * Parses, optimizes and resolves source into a program any session can run, along with the
+   * modules it imports relative to the working directory. Returns null when it has syntax errors
+   * or a module can not be loaded, they are in {@link #diagnostics}.
+   */
+  public Program parse(String source) {
+    return parse(source, Paths.get(""));
+  }
+
+  /** Like {@link #parse(String)}, with the paths of imports relative to directory. */
+  public Program parse(String source, Path directory) {
+    int reported = diagnostics.size();
+    List<Token> tokens = new Scanner(source, reporter).scanTokens();
+    List<Stmt> statements = new Parser(tokens, reporter).parse();
+    if (diagnostics.size() > reported) {
+      status = 65;
+      return null;
+    }
+    Map<Stmt.Import, ModuleLoader.Module> modules =
+        ModuleLoader.load(statements, directory, reporter);
+    if (modules == null) {
+      status = 65;
+      return null;
+    }
+    statements = new Optimizer().optimize(statements);
+    statements = new LoopOptimizer().optimize(statements);
+    statements = new Resolver().resolve(statements);
+    return new Program(statements, modules);
+  }
+
+  /** Runs the program and returns the status the command line would exit with, 0 or 70. */
+  public int run(Program program) {
+    int reported = diagnostics.size();
+    interpreter.modules(program.modules);
+    interpreter.interpret(program.statements);
+    out.flush();
+    status = diagnostics.size() > reported ? 70 : 0;
+    return status;
+  }
+
+  /** Parses and runs source, returns 65 for a syntax error and otherwise what run returns. */
+  public int run(String source) {
+    Program program = parse(source);
+    return program == null ? status : run(program);
+  }
+
+  /** What the last parse or run ended with, the status the command line would exit with. */
+  public int status() {
+    return status;
+  }
+
+  /** The errors reported so far, one per line as the command line prints them. */
+  public String errors() {
+    return diagnostics.toString();
+  }
+
+  /** The errors reported so far, with the column and token each one is at. */
+  public List<Diagnostic> diagnostics() {
+    return diagnostics.list();
+  }
+
+  public OutputSink output() {
+    return out;
+  }
+}
@@ -0,0 +1,152 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Interpreter whose binary and unary nodes specialize themselves on the operand types they see the
+ * first time they run. A specialized node checks a cheap guard and computes the result directly,
+ * without the operator switch and operand checks of {@link Interpreter#binary}. When the guard
+ * fails the node is rewritten to the generic version for good, so a node never flips back and
+ * forth.
+ *
+ * <p>What a node has become is the int in its {@code specialized} field, which only this
+ * interpreter reads or writes. Two sessions running one tree may race on it, the loser only
+ * specializes the node again.
+ */
+class SpecializingInterpreter extends Interpreter {
+  // the states of a node, 0 before it first ran
+  private static final int UNSPECIALIZED = 0;
+  private static final int GENERIC = 1;
+  private static final int NUMBER_ADD = 2;
+  private static final int NUMBER_SUBTRACT = 3;
+  private static final int NUMBER_MULTIPLY = 4;
+  private static final int NUMBER_DIVIDE = 5;
+  private static final int NUMBER_GREATER = 6;
+  private static final int NUMBER_GREATER_EQUAL = 7;
+  private static final int NUMBER_LESS = 8;
+  private static final int NUMBER_LESS_EQUAL = 9;
+  private static final int NUMBER_EQUAL = 10;
+  private static final int NUMBER_NOT_EQUAL = 11;
+  private static final int STRING_CONCAT = 12;
+  private static final int NUMBER_NEGATE = 13;
+  private static final int NOT = 14;
+
+  SpecializingInterpreter(OutputSink out) {
+    super(out);
+  }
+
+  SpecializingInterpreter(OutputSink out, ErrorReporter reporter) {
+    super(out, reporter);
+  }
+
+  @Override
+  public Object visitBinaryExpr(Expr.Binary expr) {
+    Object left = evaluate(expr.left);
+    Object right = evaluate(expr.right);
+    int node = expr.specialized;
+    if (node == UNSPECIALIZED) {
+      node = expr.specialized = specialize(expr.operator.type, left, right);
+    }
+    if (left instanceof Double && right instanceof Double) {
+      double l = (double) left;
+      double r = (double) right;
+      switch (node) {
+        case NUMBER_ADD:
+          return box(l + r);
+        case NUMBER_SUBTRACT:
+          return box(l - r);
+        case NUMBER_MULTIPLY:
+          return box(l * r);
+        case NUMBER_DIVIDE:
+          // dividing by zero is an error only the generic node reports
+          if (r != 0) return box(l / r);
+          break;
+        case NUMBER_GREATER:
+          return l > r;
+        case NUMBER_GREATER_EQUAL:
+          return l >= r;
+        case NUMBER_LESS:
+          return l < r;
+        case NUMBER_LESS_EQUAL:
+          return l <= r;
+        case NUMBER_EQUAL:
+          return left.equals(right);
+        case NUMBER_NOT_EQUAL:
+          return !left.equals(right);
+        default:
+          break;
+      }
+    } else if (node == STRING_CONCAT
+        && (left instanceof String || right instanceof String)) {
+      return concat(left, right);
+    }
+    // the guard failed, or the node was generic to begin with
+    if (node != GENERIC) expr.specialized = GENERIC;
+    return binary(expr.operator, left, right);
+  }
+
+  @Override
+  public Object visitUnaryExpr(Expr.Unary expr) {
+    Object right = evaluate(expr.right);
+    int node = expr.specialized;
+    if (node == UNSPECIALIZED) node = expr.specialized = specialize(expr.operator.type, right);
+    switch (node) {
+      case NUMBER_NEGATE:
+        if (right instanceof Double) return box(-(double) right);
+        break;
+      case NOT:
+        return !isTruthy(right);
+      default:
+        break;
+    }
+    if (node != GENERIC) expr.specialized = GENERIC;
+    return unary(expr.operator, right);
+  }
+
+  // the nodes hot expressions are made of are told apart by class checks, which cost less than the
+  // accept call every other node goes through
+  @Override
+  Object evaluate(Expr expr) {
+    if (expr instanceof Expr.Variable) return visitVariableExpr((Expr.Variable) expr);
+    if (expr instanceof Expr.Binary) return visitBinaryExpr((Expr.Binary) expr);
+    if (expr instanceof Expr.Literal) return ((Expr.Literal) expr).value;
+    if (expr instanceof Expr.Assign) return visitAssignExpr((Expr.Assign) expr);
+    if (expr instanceof Expr.Logical) return visitLogicalExpr((Expr.Logical) expr);
+    return expr.accept(this);
+  }
+
+  private static int specialize(TokenType type, Object left, Object right) {
+    if (type == TokenType.PLUS && (left instanceof String || right instanceof String)) {
+      return STRING_CONCAT;
+    }
+    if (!(left instanceof Double && right instanceof Double)) return GENERIC;
+    switch (type) {
+      case PLUS:
+        return NUMBER_ADD;
+      case MINUS:
+        return NUMBER_SUBTRACT;
+      case STAR:
+        return NUMBER_MULTIPLY;
+      case SLASH:
+        return NUMBER_DIVIDE;
+      case GREATER:
+        return NUMBER_GREATER;
+      case GREATER_EQUAL:
+        return NUMBER_GREATER_EQUAL;
+      case LESS:
+        return NUMBER_LESS;
+      case LESS_EQUAL:
+        return NUMBER_LESS_EQUAL;
+      case EQUAL_EQUAL:
+        return NUMBER_EQUAL;
+      case BANG_EQUAL:
+        return NUMBER_NOT_EQUAL;
+      default:
+        return GENERIC;
+    }
+  }
+
+  private static int specialize(TokenType type, Object right) {
+    if (type == TokenType.BANG) return NOT;
+    if (type == TokenType.MINUS && right instanceof Double) return NUMBER_NEGATE;
+    return GENERIC;
+  }
+}
@@ -3,6 +3,14 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 abstract class Stmt {
+  // line of the first token, a pass that rebuilds a statement carries it over with at()
+  int line;
+
+  static <S extends Stmt> S at(int line, S stmt) {
+    stmt.line = line;
+    return stmt;
+  }
+
   interface Visitor<R> {
     R visitBlockStmt(Block stmt);
     R visitExpressionStmt(Expression stmt);
@@ -10,10 +18,17 @@ abstract class Stmt {
     R visitVarStmt(Var stmt);
     R visitIfStmt(If stmt);
     R visitWhileStmt(While stmt);
+    R visitLazyStmt(Lazy stmt);
+    R visitImportStmt(Import stmt);
   }
   static class Block extends Stmt {
     Block(List<Stmt> statements){
+      this(statements, 0);
+    }
+
+    Block(List<Stmt> statements, int slots){
       this.statements = statements;
+      this.slots = slots;
     }
 
     @Override
@@ -21,6 +36,7 @@ abstract class Stmt {
       return visitor.visitBlockStmt(this);
     }
     final List<Stmt> statements;
+    final int slots;
   }
   static class Expression extends Stmt {
     Expression(Expr expression){
@@ -46,8 +62,13 @@ abstract class Stmt {
   }
   static class Var extends Stmt {
     Var(Token name, Expr initializer){
+      this(name, initializer, -1);
+    }
+
+    Var(Token name, Expr initializer, int slot){
       this.name = name;
       this.initializer = initializer;
+      this.slot = slot;
     }
 
     @Override
@@ -56,6 +77,7 @@ abstract class Stmt {
     }
     final Token name;
     final  Expr initializer;
+    final int slot;
   }
   static class If extends Stmt {
     If(Expr condition , Stmt thenBranch , Stmt elseBranch){
@@ -85,6 +107,38 @@ abstract class Stmt {
     final Expr condition;
     final  Stmt body;
   }
+  static class Lazy extends Stmt {
+    Lazy(Token brace, List<Token> tokens){
+      this(brace, tokens, null);
+    }
+
+    Lazy(Token brace, List<Token> tokens, Resolver resolver){
+      this.brace = brace;
+      this.tokens = tokens;
+      this.resolver = resolver;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitLazyStmt(this);
+    }
+    final Token brace;
+    final  List<Token> tokens;
+    final Resolver resolver;
+  }
+  static class Import extends Stmt {
+    Import(Token keyword, Token path){
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+    final Token keyword;
+    final  Token path;
+  }
 
     abstract <R> R accept(Visitor<R> visitor);
 }
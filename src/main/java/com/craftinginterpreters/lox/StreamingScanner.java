@@ -0,0 +1,260 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * Scans tokens on demand from a {@link Reader}, holding only a small window of the source instead
+ * of the whole text and token list. Produces exactly the tokens {@link Scanner} does. Read failures
+ * surface as {@link UncheckedIOException}.
+ */
+class StreamingScanner implements TokenSource {
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position = 0;
+  private int limit = 0;
+  private boolean exhausted = false;
+  private final StringBuilder lexeme = new StringBuilder();
+  private int line = 1;
+  // of the next character, and of the first one of the lexeme
+  private int column = 1;
+  private int startColumn = 1;
+
+  StreamingScanner(Reader reader) {
+    this.reader = reader;
+  }
+
+  /** Scans a file through a read only memory mapping, decoded with the given charset. */
+  StreamingScanner(FileChannel channel, Charset charset) {
+    this(new MappedReader(channel, charset));
+  }
+
+  @Override
+  public Token nextToken() {
+    while (!isAtEnd()) {
+      // we are at the beginning of the next lexeme
+      lexeme.setLength(0);
+      startColumn = column;
+      Token token = scanToken();
+      if (token != null) {
+        if (LoxMetrics.ENABLED) LoxMetrics.TOKENS.increment();
+        return token;
+      }
+    }
+    if (LoxMetrics.ENABLED) LoxMetrics.TOKENS.increment();
+    return new Token(EOF, "", null, line, column);
+  }
+
+  // null when the lexeme was whitespace, a comment or an error
+  private Token scanToken() {
+    char ch = advance();
+    switch (ch) {
+      case '(':
+        return token(LEFT_PAREN);
+      case ')':
+        return token(RIGHT_PAREN);
+      case '{':
+        return token(LEFT_BRACE);
+      case '}':
+        return token(RIGHT_BRACE);
+      case ',':
+        return token(COMMA);
+      case '.':
+        return token(DOT);
+      case '-':
+        return token(MINUS);
+      case '+':
+        return token(PLUS);
+      case ';':
+        return token(SEMICOLON);
+      case '*':
+        return token(STAR);
+      case '!':
+        return token(match('=') ? BANG_EQUAL : BANG);
+      case '=':
+        return token(match('=') ? EQUAL_EQUAL : EQUAL);
+      case '>':
+        return token(match('=') ? GREATER_EQUAL : GREATER);
+      case '<':
+        return token(match('=') ? LESS_EQUAL : LESS);
+      case '/':
+        if (match('/')) {
+          // A comment goes until the end of the line
+          while (peek() != '\n' && !isAtEnd()) advance();
+          return null;
+        }
+        return token(SLASH);
+      case ' ':
+      case '\r':
+      case '\t':
+        return null;
+      case '\n':
+        line++;
+        return null;
+      case '"':
+        return string();
+      default:
+        if (Character.isDigit(ch)) {
+          return number();
+        } else if (Character.isLetterOrDigit(ch)) {
+          return identifier();
+        }
+        Lox.error(line, startColumn, "Unexpected character");
+        return null;
+    }
+  }
+
+  private Token identifier() {
+    while (Character.isAlphabetic(peek())) advance();
+    TokenType type = Scanner.keywords.get(lexeme.toString());
+    return token(type == null ? IDENTIFIER : type);
+  }
+
+  private Token number() {
+    while (Character.isDigit(peek())) advance();
+    if (peek() == '.' && Character.isDigit(peekNext())) {
+      advance();
+      while (Character.isDigit(peek())) advance();
+    }
+    return token(NUMBER, Double.parseDouble(lexeme.toString()));
+  }
+
+  private Token string() {
+    while (peek() != '"' && !isAtEnd()) {
+      if (peek() == '\n') line++;
+      advance();
+    }
+    if (isAtEnd()) {
+      Lox.error(line, column, "Unterminated string");
+      return null;
+    }
+    advance();
+    return token(STRING, lexeme.substring(1, lexeme.length() - 1));
+  }
+
+  private Token token(TokenType type) {
+    return token(type, null);
+  }
+
+  private Token token(TokenType type, Object literal) {
+    return new Token(type, lexeme.toString(), literal, line, startColumn);
+  }
+
+  private boolean match(char ch) {
+    if (peek() != ch || isAtEnd()) return false;
+    advance();
+    return true;
+  }
+
+  private char peek() {
+    if (!fill(1)) return '\0';
+    return buffer[position];
+  }
+
+  private char peekNext() {
+    if (!fill(2)) return '\0';
+    return buffer[position + 1];
+  }
+
+  private char advance() {
+    fill(1);
+    char ch = buffer[position++];
+    column = ch == '\n' ? 1 : column + 1;
+    lexeme.append(ch);
+    return ch;
+  }
+
+  private boolean isAtEnd() {
+    return !fill(1);
+  }
+
+  // makes sure at least count unread chars are buffered, false if the input ends before that
+  private boolean fill(int count) {
+    if (limit - position >= count) return true;
+    if (exhausted) return false;
+    System.arraycopy(buffer, position, buffer, 0, limit - position);
+    limit -= position;
+    position = 0;
+    try {
+      while (limit < count) {
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+          exhausted = true;
+          return false;
+        }
+        limit += read;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return true;
+  }
+
+  /**
+   * Decodes a file region by region from memory mappings. A region that ends in the middle of a
+   * multi byte character is remapped from that character on.
+   */
+  private static class MappedReader extends Reader {
+    private static final long REGION_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private MappedByteBuffer region = null;
+    private long regionStart = 0;
+    private boolean done = false;
+
+    MappedReader(FileChannel channel, Charset charset) {
+      this.channel = channel;
+      // malformed input is replaced, the same as decoding the whole file into a String
+      this.decoder =
+          charset
+              .newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+      if (length == 0) return 0;
+      CharBuffer out = CharBuffer.wrap(chars, offset, length);
+      while (!done && out.position() == offset) {
+        if (region == null) map(0);
+        boolean last = regionStart + region.limit() == channel.size();
+        CoderResult result = decoder.decode(region, out, last);
+        if (result.isError()) result.throwException();
+        if (result.isOverflow()) break;
+        if (last) {
+          decoder.flush(out);
+          done = true;
+        } else {
+          map(regionStart + region.position());
+        }
+      }
+      int read = out.position() - offset;
+      return read == 0 && done ? -1 : read;
+    }
+
+    private void map(long start) throws IOException {
+      long size = Math.min(REGION_SIZE, channel.size() - start);
+      region = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+      regionStart = start;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
@@ -5,12 +5,19 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int line;
+    // of the token's first character, from 1, 0 for tokens that are not in the source
+    final int column;
 
     public Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, 0);
+    }
+
+    public Token(TokenType type, String lexeme, Object literal, int line, int column) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.column = column;
     }
 
     @Override
@@ -20,6 +27,7 @@ public class Token {
                 ", lexeme='" + lexeme + '\'' +
                 ", literal=" + literal +
                 ", line=" + line +
+                ", column=" + column +
                 '}';
     }
 }
@@ -0,0 +1,132 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/**
+ * Scanned tokens stored as parallel primitive arrays of type, source offset, length, line and
+ * column. A {@link Token} is only built when somebody asks for one, its lexeme comes from a shared
+ * table for punctuation and keywords and from the source for everything else.
+ */
+class TokenBuffer {
+  private static final TokenType[] TYPES = TokenType.values();
+  private static final String[] SPELLINGS = new String[TYPES.length];
+
+  static {
+    String punctuation = "(){},.-+;/*";
+    TokenType[] single = {
+      LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH,
+      STAR
+    };
+    for (int i = 0; i < single.length; i++) {
+      SPELLINGS[single[i].ordinal()] = String.valueOf(punctuation.charAt(i));
+    }
+    SPELLINGS[BANG.ordinal()] = "!";
+    SPELLINGS[BANG_EQUAL.ordinal()] = "!=";
+    SPELLINGS[EQUAL.ordinal()] = "=";
+    SPELLINGS[EQUAL_EQUAL.ordinal()] = "==";
+    SPELLINGS[GREATER.ordinal()] = ">";
+    SPELLINGS[GREATER_EQUAL.ordinal()] = ">=";
+    SPELLINGS[LESS.ordinal()] = "<";
+    SPELLINGS[LESS_EQUAL.ordinal()] = "<=";
+    for (Map.Entry<String, TokenType> keyword : Scanner.keywords.entrySet()) {
+      SPELLINGS[keyword.getValue().ordinal()] = keyword.getKey();
+    }
+    SPELLINGS[EOF.ordinal()] = "";
+  }
+
+  /** The lexeme every token of the type has, null for identifiers, literals and EOF. */
+  static String spelling(TokenType type) {
+    return type == EOF ? null : SPELLINGS[type.ordinal()];
+  }
+
+  private final String source;
+  private byte[] types = new byte[256];
+  private int[] starts = new int[256];
+  private int[] lengths = new int[256];
+  private int[] lines = new int[256];
+  private int[] columns = new int[256];
+  private int size = 0;
+
+  TokenBuffer(String source) {
+    this.source = source;
+  }
+
+  void add(TokenType type, int start, int length, int line, int column) {
+    if (size == types.length) {
+      int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      columns = Arrays.copyOf(columns, capacity);
+    }
+    types[size] = (byte) type.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    lines[size] = line;
+    columns[size] = column;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  int start(int index) {
+    return starts[index];
+  }
+
+  int length(int index) {
+    return lengths[index];
+  }
+
+  int line(int index) {
+    return lines[index];
+  }
+
+  int column(int index) {
+    return columns[index];
+  }
+
+  String lexeme(int index) {
+    String spelling = SPELLINGS[types[index]];
+    if (spelling != null) return spelling;
+    return source.substring(starts[index], starts[index] + lengths[index]);
+  }
+
+  Object literal(int index) {
+    switch (type(index)) {
+      case NUMBER:
+        return Double.parseDouble(lexeme(index));
+      case STRING:
+        return source.substring(starts[index] + 1, starts[index] + lengths[index] - 1);
+      default:
+        return null;
+    }
+  }
+
+  Token token(int index) {
+    return new Token(type(index), lexeme(index), literal(index), lines[index], columns[index]);
+  }
+
+  /** Materializes tokens one at a time as they are pulled. The buffer must end with EOF. */
+  TokenSource tokens() {
+    return new TokenSource() {
+      private int next = 0;
+
+      @Override
+      public Token nextToken() {
+        Token token = token(next);
+        if (next < size - 1) next++;
+        return token;
+      }
+    };
+  }
+}
@@ -0,0 +1,6 @@
+package com.craftinginterpreters.lox;
+
+/** Produces tokens one at a time. Once the input is exhausted every call returns an EOF token. */
+interface TokenSource {
+  Token nextToken();
+}
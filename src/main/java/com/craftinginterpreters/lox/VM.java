@@ -0,0 +1,364 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+/**
+ * Stack based virtual machine running the bytecode produced by {@link Compiler}. Arithmetic on two
+ * numbers is done inline, every other combination goes through {@link Interpreter#binary} so both
+ * engines agree on results and runtime errors.
+ *
+ * <p>Globals live in an environment, so they outlast a chunk the way lines of the REPL need. While
+ * a chunk runs they are copied into an array indexed by the chunk's global slots, and copied back
+ * when it stops, nothing else can look at them in between.
+ */
+class VM {
+  // the value of a global slot whose name is not defined
+  private static final Object UNDEFINED = new Object();
+
+  private final Environment globals;
+  private final OutputSink out;
+
+  VM(Environment globals, OutputSink out) {
+    this.globals = globals;
+    this.out = out;
+  }
+
+  void interpret(Chunk chunk) {
+    String[] names = chunk.globals();
+    Object[] values = new Object[names.length];
+    for (int i = 0; i < names.length; i++) values[i] = globals.getOrDefault(names[i], UNDEFINED);
+    try {
+      run(chunk, values);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    } finally {
+      for (int i = 0; i < names.length; i++) {
+        if (values[i] != UNDEFINED) globals.define(names[i], values[i]);
+      }
+    }
+  }
+
+  private void run(Chunk chunk, Object[] globals) {
+    byte[] code = chunk.code();
+    Object[] constants = chunk.constants();
+    Object[] locals = new Object[chunk.locals];
+    // the stack and its pointer live in locals so the JIT can keep them in registers
+    Object[] stack = new Object[chunk.maxStack + 1];
+    int sp = 0;
+    int ip = 0;
+    for (; ; ) {
+      int op = code[ip++];
+      switch (op) {
+        case CONSTANT:
+          stack[sp++] = constants[u16(code, ip)];
+          ip += 2;
+          break;
+        case NIL:
+          stack[sp++] = null;
+          break;
+        case TRUE:
+          stack[sp++] = true;
+          break;
+        case FALSE:
+          stack[sp++] = false;
+          break;
+        case POP:
+          sp--;
+          break;
+        case GET_GLOBAL:
+          stack[sp++] = global(globals, u16(code, ip), chunk, ip - 1);
+          ip += 2;
+          break;
+        case SET_GLOBAL:
+          setGlobal(globals, u16(code, ip), stack[sp - 1], chunk, ip - 1);
+          ip += 2;
+          break;
+        case DEFINE_GLOBAL:
+          globals[u16(code, ip)] = stack[--sp];
+          ip += 2;
+          break;
+        case GET_LOCAL:
+          {
+            Object value = locals[u16(code, ip)];
+            if (value == null) initialized(chunk.token(ip - 1), null);
+            stack[sp++] = value;
+            ip += 2;
+            break;
+          }
+        case INCREMENT_LOCAL:
+          {
+            int slot = u16(code, ip);
+            Object current = locals[slot];
+            if (current instanceof Double) {
+              locals[slot] = (double) current + (double) constants[u16(code, ip + 2)];
+              ip += u16(code, ip + 4) + 6;
+            } else {
+              ip += 6;
+            }
+            break;
+          }
+        case SET_LOCAL:
+          locals[u16(code, ip)] = stack[sp - 1];
+          ip += 2;
+          break;
+        case DEFINE_LOCAL:
+          locals[u16(code, ip)] = stack[--sp];
+          ip += 2;
+          break;
+        case ADD:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            if (left instanceof Double && right instanceof Double) {
+              stack[sp++] = (double) left + (double) right;
+            } else {
+              stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            }
+            break;
+          }
+        case SUBTRACT:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            if (left instanceof Double && right instanceof Double) {
+              stack[sp++] = (double) left - (double) right;
+            } else {
+              stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            }
+            break;
+          }
+        case MULTIPLY:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            if (left instanceof Double && right instanceof Double) {
+              stack[sp++] = (double) left * (double) right;
+            } else {
+              stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            }
+            break;
+          }
+        case DIVIDE:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            if (left instanceof Double && right instanceof Double && (double) right != 0) {
+              stack[sp++] = (double) left / (double) right;
+            } else {
+              stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            }
+            break;
+          }
+        case GREATER:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            if (left instanceof Double && right instanceof Double) {
+              boolean result = (double) left > (double) right;
+              if (code[ip] != POP_JUMP_IF_FALSE) {
+                stack[sp++] = result;
+              } else {
+                ip += result ? 3 : u16(code, ip + 1) + 3;
+              }
+            } else {
+              stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            }
+            break;
+          }
+        case GREATER_EQUAL:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            if (left instanceof Double && right instanceof Double) {
+              boolean result = (double) left >= (double) right;
+              if (code[ip] != POP_JUMP_IF_FALSE) {
+                stack[sp++] = result;
+              } else {
+                ip += result ? 3 : u16(code, ip + 1) + 3;
+              }
+            } else {
+              stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            }
+            break;
+          }
+        case LESS:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            if (left instanceof Double && right instanceof Double) {
+              boolean result = (double) left < (double) right;
+              if (code[ip] != POP_JUMP_IF_FALSE) {
+                stack[sp++] = result;
+              } else {
+                ip += result ? 3 : u16(code, ip + 1) + 3;
+              }
+            } else {
+              stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            }
+            break;
+          }
+        case LESS_EQUAL:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            if (left instanceof Double && right instanceof Double) {
+              boolean result = (double) left <= (double) right;
+              if (code[ip] != POP_JUMP_IF_FALSE) {
+                stack[sp++] = result;
+              } else {
+                ip += result ? 3 : u16(code, ip + 1) + 3;
+              }
+            } else {
+              stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            }
+            break;
+          }
+        case EQUAL:
+        case NOT_EQUAL:
+          {
+            Object right = stack[--sp];
+            Object left = stack[--sp];
+            stack[sp++] = Interpreter.binary(chunk.token(ip - 1), left, right);
+            break;
+          }
+        case NEGATE:
+          stack[sp - 1] = -(double) stack[sp - 1];
+          break;
+        case NOT:
+          stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+          break;
+        case PRINT:
+          Interpreter.print(out, stack[--sp]);
+          break;
+        case JUMP:
+          ip += u16(code, ip) + 2;
+          break;
+        case JUMP_IF_FALSE:
+          ip += Interpreter.isTruthy(stack[sp - 1]) ? 2 : u16(code, ip) + 2;
+          break;
+        case POP_JUMP_IF_FALSE:
+          ip += Interpreter.isTruthy(stack[--sp]) ? 2 : u16(code, ip) + 2;
+          break;
+        case LOOP:
+          ip -= u16(code, ip) - 2;
+          break;
+        case CALL:
+          sp = call(stack, sp, u16(code, ip), chunk.token(ip - 1));
+          ip += 2;
+          break;
+        case RETURN:
+          return;
+        // the long forms, the same instructions with four byte operands
+        case CONSTANT_LONG:
+          stack[sp++] = constants[u32(code, ip)];
+          ip += 4;
+          break;
+        case GET_GLOBAL_LONG:
+          stack[sp++] = global(globals, u32(code, ip), chunk, ip - 1);
+          ip += 4;
+          break;
+        case SET_GLOBAL_LONG:
+          setGlobal(globals, u32(code, ip), stack[sp - 1], chunk, ip - 1);
+          ip += 4;
+          break;
+        case DEFINE_GLOBAL_LONG:
+          globals[u32(code, ip)] = stack[--sp];
+          ip += 4;
+          break;
+        case GET_LOCAL_LONG:
+          {
+            Object value = locals[u32(code, ip)];
+            if (value == null) initialized(chunk.token(ip - 1), null);
+            stack[sp++] = value;
+            ip += 4;
+            break;
+          }
+        case SET_LOCAL_LONG:
+          locals[u32(code, ip)] = stack[sp - 1];
+          ip += 4;
+          break;
+        case DEFINE_LOCAL_LONG:
+          locals[u32(code, ip)] = stack[--sp];
+          ip += 4;
+          break;
+        case CALL_LONG:
+          sp = call(stack, sp, u32(code, ip), chunk.token(ip - 1));
+          ip += 4;
+          break;
+        case JUMP_LONG:
+          ip += u32(code, ip) + 4;
+          break;
+        case JUMP_IF_FALSE_LONG:
+          ip += Interpreter.isTruthy(stack[sp - 1]) ? 4 : u32(code, ip) + 4;
+          break;
+        case POP_JUMP_IF_FALSE_LONG:
+          ip += Interpreter.isTruthy(stack[--sp]) ? 4 : u32(code, ip) + 4;
+          break;
+        case LOOP_LONG:
+          ip -= u32(code, ip) - 4;
+          break;
+        default:
+          throw new IllegalStateException("Unknown opcode " + op + " at " + (ip - 1));
+      }
+    }
+  }
+
+  private static int u16(byte[] code, int at) {
+    return (code[at] & 0xff) << 8 | code[at + 1] & 0xff;
+  }
+
+  private static int u32(byte[] code, int at) {
+    return u16(code, at) << 16 | u16(code, at + 2);
+  }
+
+  // the instruction at offset is only looked up for its token when it fails
+  private static Object global(Object[] globals, int slot, Chunk chunk, int offset) {
+    Object value = globals[slot];
+    if (value == null || value == UNDEFINED) initialized(chunk.token(offset), value);
+    return value;
+  }
+
+  private static void setGlobal(Object[] globals, int slot, Object value, Chunk chunk, int offset) {
+    if (globals[slot] == UNDEFINED) undefined(chunk.token(offset));
+    globals[slot] = value;
+  }
+
+  private static Object initialized(Token name, Object value) {
+    if (value == UNDEFINED) undefined(name);
+    if (value == null)
+      throw new RuntimeError(
+          name, String.format("Variable %s might not be initialized", name.lexeme));
+    return value;
+  }
+
+  private static void undefined(Token name) {
+    throw new RuntimeError(name, String.format("Undefined variable '%s'", name.lexeme));
+  }
+
+  // calls the callee below the arguments, it is replaced by the result, returns the new top
+  private static int call(Object[] stack, int sp, int argc, Token paren) {
+    List<Object> arguments = new ArrayList<>(argc);
+    for (int i = sp - argc; i < sp; i++) arguments.add(stack[i]);
+    sp -= argc;
+    stack[sp - 1] = call(stack[sp - 1], paren, arguments);
+    return sp;
+  }
+
+  private static Object call(Object callee, Token paren, List<Object> arguments) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes");
+    }
+    LoxCallable function = (LoxCallable) callee;
+    if (arguments.size() != function.arity()) {
+      throw new RuntimeError(
+          paren,
+          String.format(
+              "Expected %d number of arguments. Got %d", function.arity(), arguments.size()));
+    }
+    // natives are the only callables and none of them looks at the interpreter
+    return function.call(null, arguments);
+  }
+}
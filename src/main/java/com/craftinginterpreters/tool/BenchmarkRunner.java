@@ -0,0 +1,248 @@
+package com.craftinginterpreters.tool;
+
+import com.craftinginterpreters.lox.Lox;
+import com.craftinginterpreters.lox.MemorySink;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Times whole programs. Every .lox file of the corpus is run through {@link Lox#runFile(Path,
+ * com.craftinginterpreters.lox.OutputSink)} in this JVM after a few unmeasured warmup runs, and
+ * through a fresh JVM per run, so startup and JIT warmup are part of that number. The results are
+ * written as CSV. Given a baseline file the medians are compared against it, and a run slower than
+ * the baseline by more than the threshold makes the runner exit with 1. A baseline that does not
+ * exist yet is created from the results.
+ */
+public class BenchmarkRunner {
+  private static final String HEADER = "workload,mode,runs,min_ms,median_ms,mean_ms,max_ms";
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Path corpus = Paths.get("src", "resources", "bench");
+    Path output = Paths.get("build", "bench", "results.csv");
+    Path baseline = null;
+    double threshold = 0.10;
+    int warmup = 3;
+    int runs = 5;
+    String mode = "both";
+    for (String arg : args) {
+      if (arg.startsWith("--corpus=")) {
+        corpus = Paths.get(value(arg));
+      } else if (arg.startsWith("--out=")) {
+        output = Paths.get(value(arg));
+      } else if (arg.startsWith("--baseline=")) {
+        baseline = Paths.get(value(arg));
+      } else if (arg.matches("--threshold=[0-9]+(\\.[0-9]+)?")) {
+        threshold = Double.parseDouble(value(arg));
+      } else if (arg.matches("--warmup=[0-9]+")) {
+        warmup = Integer.parseInt(value(arg));
+      } else if (arg.matches("--runs=[1-9][0-9]*")) {
+        runs = Integer.parseInt(value(arg));
+      } else if (arg.matches("--mode=(warm|fresh|both)")) {
+        mode = value(arg);
+      } else {
+        usage();
+      }
+    }
+
+    List<Path> scripts;
+    try (Stream<Path> files = Files.list(corpus)) {
+      scripts =
+          files
+              .filter(file -> file.toString().endsWith(".lox"))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    if (scripts.isEmpty()) {
+      System.err.println("No .lox files in " + corpus);
+      System.exit(64);
+    }
+
+    List<Result> results = new ArrayList<>();
+    for (Path script : scripts) {
+      if (!mode.equals("fresh")) results.add(warm(script, warmup, runs));
+      if (!mode.equals("warm")) results.add(fresh(script, runs));
+    }
+    write(output, results);
+    for (Result result : results) System.out.println(result);
+    System.out.println("Results written to " + output);
+
+    if (baseline == null) return;
+    if (!Files.exists(baseline)) {
+      write(baseline, results);
+      System.out.println("Stored " + baseline + " as the baseline");
+      return;
+    }
+    if (!compare(read(baseline), results, threshold)) System.exit(1);
+  }
+
+  private static String value(String arg) {
+    return arg.substring(arg.indexOf('=') + 1);
+  }
+
+  private static void usage() {
+    System.err.println(
+        "Usage: benchmark_runner [--corpus=dir] [--out=file] [--baseline=file]"
+            + " [--threshold=fraction] [--warmup=n] [--runs=n] [--mode=warm|fresh|both]");
+    System.exit(64);
+  }
+
+  private static Result warm(Path script, int warmup, int runs) throws IOException {
+    // what the program prints is kept in memory, so the terminal is not part of the number
+    MemorySink out = new MemorySink();
+    long[] times = new long[runs];
+    for (int i = -warmup; i < runs; i++) {
+      long start = System.nanoTime();
+      int status = Lox.runFile(script, out);
+      long time = System.nanoTime() - start;
+      out.clear();
+      if (status != 0) fail(script, status);
+      if (i >= 0) times[i] = time;
+    }
+    return new Result(name(script), "warm", times);
+  }
+
+  private static Result fresh(Path script, int runs) throws IOException, InterruptedException {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    ProcessBuilder builder =
+        new ProcessBuilder(
+                java,
+                "-cp",
+                System.getProperty("java.class.path"),
+                Lox.class.getName(),
+                script.toString())
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT);
+    long[] times = new long[runs];
+    // one run that is not counted, so the first one does not pay for reading the jdk from disk
+    for (int i = -1; i < runs; i++) {
+      long start = System.nanoTime();
+      int status = builder.start().waitFor();
+      long time = System.nanoTime() - start;
+      if (status != 0) fail(script, status);
+      if (i >= 0) times[i] = time;
+    }
+    return new Result(name(script), "fresh", times);
+  }
+
+  private static void fail(Path script, int status) {
+    System.err.println(script + " failed with status " + status);
+    System.exit(1);
+  }
+
+  private static String name(Path script) {
+    String file = script.getFileName().toString();
+    return file.substring(0, file.length() - ".lox".length());
+  }
+
+  private static void write(Path file, List<Result> results) throws IOException {
+    if (file.getParent() != null) Files.createDirectories(file.getParent());
+    List<String> lines = new ArrayList<>();
+    lines.add(HEADER);
+    for (Result result : results) lines.add(result.csv());
+    Files.write(file, lines, StandardCharsets.UTF_8);
+  }
+
+  // median per workload and mode
+  private static Map<String, Double> read(Path file) throws IOException {
+    Map<String, Double> medians = new HashMap<>();
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    List<String> columns = Arrays.asList(lines.get(0).split(","));
+    int median = columns.indexOf("median_ms");
+    for (String line : lines.subList(1, lines.size())) {
+      String[] fields = line.split(",");
+      medians.put(fields[0] + "," + fields[1], Double.parseDouble(fields[median]));
+    }
+    return medians;
+  }
+
+  private static boolean compare(
+      Map<String, Double> baseline, List<Result> results, double threshold) {
+    boolean passed = true;
+    System.out.println(
+        String.format("Against the baseline, %.0f%% slower is a regression:", threshold * 100));
+    for (Result result : results) {
+      Double before = baseline.get(result.workload + "," + result.mode);
+      if (before == null) {
+        System.out.println(
+            String.format("  %-12s %-5s    not in the baseline", result.workload, result.mode));
+        continue;
+      }
+      double now = result.median();
+      double change = now / before - 1;
+      boolean regressed = change > threshold;
+      if (regressed) passed = false;
+      System.out.println(
+          String.format(
+              "  %-12s %-5s %10.2f ms -> %10.2f ms %+7.1f%%%s",
+              result.workload,
+              result.mode,
+              before,
+              now,
+              change * 100,
+              regressed ? "  REGRESSION" : ""));
+    }
+    return passed;
+  }
+
+  /** The measured runs of one workload in one mode. */
+  private static class Result {
+    final String workload;
+    final String mode;
+    final long[] nanos;
+
+    Result(String workload, String mode, long[] nanos) {
+      this.workload = workload;
+      this.mode = mode;
+      this.nanos = nanos.clone();
+      Arrays.sort(this.nanos);
+    }
+
+    double min() {
+      return millis(nanos[0]);
+    }
+
+    double max() {
+      return millis(nanos[nanos.length - 1]);
+    }
+
+    double median() {
+      int middle = nanos.length / 2;
+      if (nanos.length % 2 == 1) return millis(nanos[middle]);
+      return millis(nanos[middle - 1] + nanos[middle]) / 2;
+    }
+
+    double mean() {
+      return millis(Arrays.stream(nanos).sum()) / nanos.length;
+    }
+
+    private static double millis(long nanos) {
+      return nanos / 1e6;
+    }
+
+    String csv() {
+      // a decimal comma would split the fields
+      return String.format(
+          Locale.ROOT,
+          "%s,%s,%d,%.3f,%.3f,%.3f,%.3f",
+          workload, mode, nanos.length, min(), median(), mean(), max());
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%-12s %-5s median %10.2f ms (min %.2f, max %.2f, %d runs)",
+          workload, mode, median(), min(), max(), nanos.length);
+    }
+  }
+}
@@ -3,6 +3,7 @@ package com.craftinginterpreters.tool;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -16,28 +17,42 @@ public class GenerateAst {
     defineAst(
         outputDir,
         "Expr",
+        Arrays.asList(),
         Arrays.asList(
-            "Assign : Token name, Expr value",
-            "Binary : Expr left, Token operator, Expr right",
+            "Assign : Token name, Expr value ; int depth = -1, int slot, Double step",
+            "Binary : Expr left, Token operator, Expr right | int specialized",
             "Call : Expr callee, Token paren, List<Expr> arguments",
             "Grouping : Expr expression",
             "Literal : Object value",
-            "Unary : Token operator, Expr right",
+            "Unary : Token operator, Expr right | int specialized",
             "Logical : Expr left, Token operator, Expr right",
-            "Variable : Token name"));
+            "Variable : Token name ; int depth = -1, int slot"));
     defineAst(
         outputDir,
         "Stmt",
         Arrays.asList(
-            "Block : List<Stmt> statements",
+            "  // line of the first token, a pass that rebuilds a statement carries it over with at()",
+            "  int line;",
+            "",
+            "  static <S extends Stmt> S at(int line, S stmt) {",
+            "    stmt.line = line;",
+            "    return stmt;",
+            "  }",
+            ""),
+        Arrays.asList(
+            "Block : List<Stmt> statements ; int slots",
             "Expression : Expr expression",
             "Print : Expr expression",
-            "Var : Token name, Expr initializer",
+            "Var : Token name, Expr initializer ; int slot = -1",
             "If : Expr condition , Stmt thenBranch , Stmt elseBranch",
-            "While : Expr condition, Stmt body"));
+            "While : Expr condition, Stmt body",
+            "Lazy : Token brace, List<Token> tokens ; Resolver resolver",
+            "Import : Token keyword, Token path"));
   }
 
-  private static void defineAst(String outputDir, String baseName, List<String> types)
+  // members are written into the base class as they are
+  private static void defineAst(
+      String outputDir, String baseName, List<String> members, List<String> types)
       throws IOException {
     String path = String.join("/", outputDir, baseName) + ".java";
     PrintWriter writer = new PrintWriter(path, StandardCharsets.UTF_8);
@@ -46,12 +61,26 @@ public class GenerateAst {
     writer.println("import java.util.List;");
     writer.println();
     writer.println("abstract class " + baseName + " {");
+    for (String member : members) writer.println(member);
     defineVisitor(writer, baseName, types);
     // the AST classes
     for (String type : types) {
       String className = type.split(":")[0].trim();
       String fields = type.split(":")[1].trim();
-      defineType(writer, className, fields, baseName);
+      // fields after '|' are caches the interpreter that runs the tree writes as it goes
+      String caches = null;
+      if (fields.contains("|")) {
+        caches = fields.split("\\|")[1].trim();
+        fields = fields.split("\\|")[0].trim();
+      }
+      // fields after ';' are final, the parser leaves them at their defaults and later passes build
+      // the node again with what they found out
+      String annotations = null;
+      if (fields.contains(";")) {
+        annotations = fields.split(";")[1].trim();
+        fields = fields.split(";")[0].trim();
+      }
+      defineType(writer, className, fields, annotations, caches, baseName);
     }
     writer.println();
     writer.println("    abstract <R> R accept(Visitor<R> visitor);");
@@ -71,11 +100,28 @@ public class GenerateAst {
   }
 
   private static void defineType(
-      PrintWriter writer, String className, String fields, String baseName) {
+      PrintWriter writer,
+      String className,
+      String fields,
+      String annotations,
+      String caches,
+      String baseName) {
 
     writer.println(String.format("  static class %s extends %s {", className, baseName));
-    writer.println(String.format("    %s(%s){", className, fields));
-    for (String param : fields.split(",")) {
+    String parameters = fields;
+    if (annotations != null) {
+      // the parser's constructor, the annotations take their defaults
+      List<String> arguments = new ArrayList<>();
+      for (String param : fields.split(",")) arguments.add(param.trim().split("\\s+")[1]);
+      for (String annotation : annotations.split(",")) arguments.add(defaultOf(annotation));
+      writer.println(String.format("    %s(%s){", className, fields));
+      writer.println(String.format("      this(%s);", String.join(", ", arguments)));
+      writer.println("    }");
+      writer.println();
+      parameters = fields + ", " + annotations.replaceAll("\\s*=[^,]*", "");
+    }
+    writer.println(String.format("    %s(%s){", className, parameters));
+    for (String param : parameters.split(",")) {
       param = param.trim();
       String name = param.split("\\s+")[1];
       writer.println(String.format("      this.%s = %s;", name, name));
@@ -91,6 +137,33 @@ public class GenerateAst {
     for (String param : fields.split(",")) {
       writer.println(String.format("    final %s;", param));
     }
+    if (annotations != null) {
+      for (String annotation : annotations.split(",")) {
+        writer.println(String.format("    final %s;", annotation.replaceAll("=.*", "").trim()));
+      }
+    }
+    if (caches != null) {
+      for (String cache : caches.split(",")) {
+        writer.println(String.format("    %s;", cache.trim()));
+      }
+    }
     writer.println("  }");
   }
+
+  // what the parser's constructor gives an annotation, the value after '=' or java's default
+  private static String defaultOf(String annotation) {
+    if (annotation.contains("=")) return annotation.split("=")[1].trim();
+    String type = annotation.trim().split("\\s+")[0];
+    switch (type) {
+      case "int":
+      case "long":
+        return "0";
+      case "double":
+        return "0.0";
+      case "boolean":
+        return "false";
+      default:
+        return "null";
+    }
+  }
 }
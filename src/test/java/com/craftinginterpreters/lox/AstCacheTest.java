@@ -0,0 +1,183 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AstCacheTest {
+  // every kind of node, and every kind of literal
+  private static final String SOURCE =
+      "import \"lib.lox\";\n"
+          + "var a = 1;\n"
+          + "var b;\n"
+          + "var s = \"str\";\n"
+          + "b = a + 2 * (3 - -a);\n"
+          + "print s + \"x\";\n"
+          + "print nil == true or !false and a >= 1.5;\n"
+          + "{\n"
+          + "  var c = clock();\n"
+          + "  clock(1, \"two\");\n"
+          + "}\n"
+          + "if (a < 2) print 1; else print 2;\n"
+          + "if (a) print 3;\n"
+          + "while (a > 0) a = a - 1;\n"
+          + "for (var i = 0; i < 2; i = i + 1) { print i; }\n";
+
+  @TempDir Path directory;
+
+  @Test
+  void eagerTreeRoundTrips() throws IOException {
+    String tree = roundTrip(false);
+    for (String node :
+        new String[] {
+          "Import", "Var", "Assign", "Binary", "Grouping", "Unary", "Literal", "Variable",
+          "Print", "Logical", "Block", "Expression", "Call", "If", "While"
+        }) {
+      assertTrue(tree.contains(node + "{"), node);
+    }
+    for (String value : new String[] {"nil", "true:", "false:", "1.5:Double", "str:String"}) {
+      assertTrue(tree.contains(value), value);
+    }
+  }
+
+  @Test
+  void lazyTreeRoundTrips() throws IOException {
+    assertTrue(roundTrip(true).contains("Lazy{"));
+  }
+
+  @Test
+  void truncatedEntryIsAMiss() throws IOException {
+    byte[] entry = entry();
+    for (int length : new int[] {0, 3, 8, 20, entry.length / 2, entry.length - 1}) {
+      assertNull(load(Arrays.copyOf(entry, length)), "length " + length);
+    }
+  }
+
+  @Test
+  void entryWithABadChecksumIsAMiss() throws IOException {
+    byte[] entry = entry();
+    entry[entry.length - 1] ^= 1;
+    assertNull(load(entry));
+
+    byte[] longer = Arrays.copyOf(entry(), entry.length + 1);
+    assertNull(load(longer));
+  }
+
+  @Test
+  void entryOfAnotherVersionIsAMiss() throws IOException {
+    byte[] entry = entry();
+    ByteBuffer.wrap(entry).putInt(4, AstCache.VERSION - 1);
+    assertNull(load(entry));
+    ByteBuffer.wrap(entry).putInt(4, AstCache.VERSION + 1);
+    assertNull(load(entry));
+  }
+
+  @Test
+  void badEntriesFallBackToAParse() throws IOException, InterruptedException {
+    Path script = directory.resolve("script.lox");
+    String source = "var a = 1;\nwhile (a < 4) a = a * 2;\nprint a;\nprint \"done\";\n";
+    Files.write(script, source.getBytes(StandardCharsets.UTF_8));
+    Path cache = directory.resolve("cache");
+    String key = AstCache.key(Files.readAllBytes(script), false);
+    Path file = cache.resolve(key + ".loxc");
+    assertEquals("4\ndone\nexit 0", lox(script, cache));
+    byte[] entry = Files.readAllBytes(file);
+
+    byte[] checksum = entry.clone();
+    checksum[checksum.length - 1] ^= 1;
+    byte[] version = entry.clone();
+    ByteBuffer.wrap(version).putInt(4, AstCache.VERSION + 1);
+    for (byte[] bad : new byte[][] {Arrays.copyOf(entry, entry.length / 2), checksum, version}) {
+      Files.write(file, bad);
+      assertEquals("4\ndone\nexit 0", lox(script, cache));
+      // stored again by the run that parsed
+      assertNotNull(new AstCache(cache).load(key));
+    }
+  }
+
+  // the tree as parsed, after checking it comes back the same out of the cache
+  private String roundTrip(boolean lazy) throws IOException {
+    List<Stmt> statements = parse(lazy);
+    AstCache cache = new AstCache(directory);
+    cache.store("tree", statements);
+    List<Stmt> loaded = cache.load("tree");
+    assertNotNull(loaded);
+    String expected = dump(statements);
+    assertEquals(expected, dump(loaded));
+    return expected;
+  }
+
+  private static List<Stmt> parse(boolean lazy) {
+    return new Parser(new Scanner(SOURCE).scanTokens(), lazy, false).parse();
+  }
+
+  // the bytes of a good entry for the source
+  private byte[] entry() throws IOException {
+    new AstCache(directory).store("good", parse(false));
+    return Files.readAllBytes(directory.resolve("good.loxc"));
+  }
+
+  private List<Stmt> load(byte[] entry) throws IOException {
+    Files.write(directory.resolve("bad.loxc"), entry);
+    return new AstCache(directory).load("bad");
+  }
+
+  // every field of every node, the tokens with their literals, lines and columns
+  private static String dump(Object value) {
+    if (value instanceof Stmt || value instanceof Expr) {
+      StringBuilder text = new StringBuilder(value.getClass().getSimpleName()).append('{');
+      if (value instanceof Stmt) text.append("line=").append(((Stmt) value).line).append(' ');
+      for (Field field : value.getClass().getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers())) continue;
+        field.setAccessible(true);
+        try {
+          text.append(field.getName()).append('=').append(dump(field.get(value))).append(' ');
+        } catch (IllegalAccessException e) {
+          throw new AssertionError(e);
+        }
+      }
+      return text.append('}').toString();
+    }
+    if (value instanceof List) {
+      StringBuilder text = new StringBuilder("[");
+      for (Object element : (List<?>) value) text.append(dump(element)).append(", ");
+      return text.append(']').toString();
+    }
+    if (value == null) return "nil";
+    if (value instanceof Token) return value.toString();
+    return value + ":" + value.getClass().getSimpleName();
+  }
+
+  // what a run of the script with the cache printed, and the status it exited with
+  private static String lox(Path script, Path cache) throws IOException, InterruptedException {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    Process process =
+        new ProcessBuilder(
+                java,
+                "-cp",
+                System.getProperty("java.class.path"),
+                Lox.class.getName(),
+                "--cache=" + cache,
+                script.toString())
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    process.getInputStream().transferTo(out);
+    return out.toString(StandardCharsets.UTF_8).replace("\r\n", "\n") + "exit " + process.waitFor();
+  }
+}
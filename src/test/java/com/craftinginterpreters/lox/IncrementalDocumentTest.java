@@ -0,0 +1,84 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class IncrementalDocumentTest {
+  // bits of programs, broken ones too, random edits are made of
+  private static final String[] PIECES = {
+    "print ", "var a = 1;", "\n", "{", "}", "\"", "else ", "if (a) ", ";", "@", "//c\n", "1.5", "x",
+    " ", "(", ")", "+", "=", "print a;\n", "while (a) ", "\"s\ntr\"", "import \"m\";",
+    "for (var i = 0; i < 2; i = i + 1) print i;\n", "!", "==", "or ", "/"
+  };
+
+  @Test
+  void reportsErrorsLikeScannerThenParser() {
+    edit(1, false);
+    edit(2, false);
+  }
+
+  @Test
+  void reportsErrorsLikeScannerThenParserAfterFreezing() {
+    edit(3, true);
+  }
+
+  @Test
+  void scanErrorsOfLaterDeclarationsComeBeforeParseErrors() {
+    IncrementalDocument document =
+        new IncrementalDocument(
+            "var ax@;whxile +(var a = 1;print a)= ;=={; if (a) \"//c\nva@r= a\"while= 1;//c\n1.5");
+    document.edit(57, 6, "=");
+    assertEquals(scanThenParse(document.text()), errors(document));
+  }
+
+  private static void edit(long seed, boolean freeze) {
+    Random random = new Random(seed);
+    for (int round = 0; round < 200; round++) {
+      StringBuilder start = new StringBuilder();
+      for (int i = random.nextInt(12); i > 0; i--) start.append(piece(random));
+      IncrementalDocument document = new IncrementalDocument(start.toString());
+      int frozen = 0;
+      for (int step = 0; step < 30; step++) {
+        String before = document.text();
+        if (freeze && frozen == 0 && random.nextInt(10) == 0 && !document.hasErrors()
+            && before.endsWith("\n")) {
+          document.freeze();
+          frozen = before.length();
+        }
+        int offset = frozen + random.nextInt(before.length() - frozen + 1);
+        int removed =
+            random.nextInt(3) == 0
+                ? random.nextInt(Math.min(6, before.length() - offset) + 1)
+                : 0;
+        String inserted = random.nextInt(4) == 0 ? "" : piece(random);
+        document.edit(offset, removed, inserted);
+        String text = document.text();
+        String edit = before + "\nedited at " + offset + ", " + removed + " removed";
+        assertEquals(scanThenParse(text), errors(document), edit);
+        assertEquals(errors(new IncrementalDocument(text)), errors(document), edit);
+      }
+    }
+  }
+
+  private static String piece(Random random) {
+    return PIECES[random.nextInt(PIECES.length)];
+  }
+
+  // in the order they are reported, not sorted
+  private static List<String> errors(IncrementalDocument document) {
+    List<String> errors = new ArrayList<>();
+    document.report(diagnostic -> errors.add(diagnostic.toString()));
+    return errors;
+  }
+
+  private static List<String> scanThenParse(String text) {
+    List<String> errors = new ArrayList<>();
+    ErrorReporter reporter = diagnostic -> errors.add(diagnostic.toString());
+    new Parser(new Scanner(text, reporter).scanTokens(), reporter).parse();
+    return errors;
+  }
+}
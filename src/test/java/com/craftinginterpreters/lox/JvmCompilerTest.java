@@ -0,0 +1,117 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class JvmCompilerTest {
+  @Test
+  void arithmeticAndStrings() {
+    String source =
+        "print 1 + 2 * 3;\n"
+            + "print -1;\n"
+            + "print 5 / 2;\n"
+            + "print \"a\" + \"b\";\n"
+            + "print \"a\" + 1;\n"
+            + "print !1;\n"
+            + "print 1 <= 1;\n";
+    assertEquals("7\n-1\n2.5\nab\na1\nfalse\ntrue\n", both(source));
+  }
+
+  @Test
+  void logicalOperatorsGiveAnOperand() {
+    String source =
+        "print 1 or 2;\n"
+            + "print false or \"x\";\n"
+            + "print nil and 1;\n"
+            + "print 1 and false;\n";
+    assertEquals("1\nx\nnil\nfalse\n", both(source));
+  }
+
+  @Test
+  void localsShadowAndLoop() {
+    String source =
+        "var a = \"global\";\n"
+            + "{\n"
+            + "  var a = 1;\n"
+            + "  var sum = 0;\n"
+            + "  while (a < 5) {\n"
+            + "    var b = a * 2;\n"
+            + "    if (b > 4) sum = sum + b; else sum = sum - 1;\n"
+            + "    a = a + 1;\n"
+            + "  }\n"
+            + "  print sum;\n"
+            + "  { var a = \"inner\"; print a; }\n"
+            + "  print a;\n"
+            + "}\n"
+            + "print a;\n";
+    assertEquals("12\ninner\n5\nglobal\n", both(source));
+  }
+
+  @Test
+  void runtimeErrors() {
+    assertEquals(
+        "error Variable x might not be initialized [line 1]\n", both("{ var x; print x; }\n"));
+    assertEquals("1\nerror Undefined variable 'y' [line 2]\n", both("print 1;\nprint y;\n"));
+    assertEquals("error Can only call functions and classes [line 1]\n", both("print 1();\n"));
+    assertEquals("error Division by zero not allowed [line 1]\n", both("print 1 / 0;\n"));
+  }
+
+  @Test
+  void manyStatementsSpreadOverMethods() {
+    StringBuilder source = new StringBuilder("var n = 0;\n");
+    for (int i = 0; i < 3000; i++) source.append("n = n + 1;\n");
+    source.append("print n;\n");
+    assertEquals("3000\n", both(source.toString()));
+  }
+
+  @Test
+  void loopTooLongToJumpOverIsLeftToTheInterpreter() {
+    StringBuilder source = new StringBuilder("var n = 0;\nwhile (n < 1) {\n");
+    for (int i = 0; i < 3000; i++) source.append("n = n + 1;\n");
+    source.append("}\n");
+    assertNull(new JvmCompiler().compile(parse(source.toString())));
+    assertNotNull(new JvmCompiler().compile(parse("while (false) print 1;\n")));
+  }
+
+  // what the interpreter shows, after checking the compiled program shows it too
+  private static String both(String source) {
+    StringBuilder expected = new StringBuilder();
+    List<Stmt> statements = new Resolver().resolve(parse(source));
+    new Interpreter(sink(expected), reporter(expected)).interpret(statements);
+
+    StringBuilder actual = new StringBuilder();
+    OutputSink out = sink(actual);
+    JvmCompiler.Compiled program = new JvmCompiler().compile(parse(source));
+    try {
+      program.run(new JvmRuntime(new Interpreter(out).globals, out));
+    } catch (RuntimeError error) {
+      reporter(actual).report(Diagnostic.of(error));
+    }
+    assertEquals(expected.toString(), actual.toString());
+    return expected.toString();
+  }
+
+  private static List<Stmt> parse(String source) {
+    return new Parser(new Scanner(source).scanTokens()).parse();
+  }
+
+  private static OutputSink sink(StringBuilder text) {
+    return new OutputSink() {
+      @Override
+      public void println(String line) {
+        text.append(line).append('\n');
+      }
+
+      @Override
+      public void flush() {}
+    };
+  }
+
+  private static ErrorReporter reporter(StringBuilder text) {
+    return diagnostic -> text.append("error ").append(diagnostic).append('\n');
+  }
+}
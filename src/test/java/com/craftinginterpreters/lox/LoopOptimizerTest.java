@@ -0,0 +1,121 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class LoopOptimizerTest {
+  private static final String COUNTERS = "var n = 3;\nvar k = 2;\nvar i = 0;\n";
+
+  @Test
+  void hoistsInvariantOperandsOfTheCondition() {
+    String source = COUNTERS + "while (i < n * k) i = i + 1;\nprint i;\n";
+    Stmt.If guard = assertInstanceOf(Stmt.If.class, optimize(source).get(3));
+    Stmt.Block loop = assertInstanceOf(Stmt.Block.class, guard.thenBranch);
+    Stmt.Var hoisted = assertInstanceOf(Stmt.Var.class, loop.statements.get(0));
+    assertEquals("$loop0", hoisted.name.lexeme);
+    assertEquals("*", ((Expr.Binary) hoisted.initializer).operator.lexeme);
+    assertEquals("6\n", both(source));
+  }
+
+  @Test
+  void assignmentInTheBodyBlocksHoisting() {
+    String source = COUNTERS + "while (i < n * k) {\n  n = n - 1;\n  i = i + 1;\n}\nprint i;\n";
+    assertInstanceOf(Stmt.While.class, optimize(source).get(3));
+    assertEquals("2\n", both(source));
+
+    String nested =
+        COUNTERS + "while (i < n * k) {\n  if (i == 1) k = 1;\n  i = i + 1;\n}\nprint i;\n";
+    assertInstanceOf(Stmt.While.class, optimize(nested).get(3));
+    assertEquals("3\n", both(nested));
+  }
+
+  @Test
+  void assignmentOrCallInTheConditionBlocksHoisting() {
+    String assigns = COUNTERS + "while ((i = i + 1) < n * k) print i;\n";
+    assertInstanceOf(Stmt.While.class, optimize(assigns).get(3));
+    assertEquals("1\n2\n3\n4\n5\n", both(assigns));
+
+    String calls = COUNTERS + "while (i < n * k and clock() > 0) i = i + 1;\nprint i;\n";
+    assertInstanceOf(Stmt.While.class, optimize(calls).get(3));
+    assertEquals("6\n", both(calls));
+  }
+
+  @Test
+  void invariantThatFailsStillFailsBeforeTheFirstIteration() {
+    String source = "var s = \"a\";\nvar i = 0;\nprint i;\nwhile (i < s * 2) i = i + 1;\n";
+    assertInstanceOf(Stmt.If.class, optimize(source).get(3));
+    assertEquals("0\nerror Operator must be a number [line 4]\n", both(source));
+  }
+
+  @Test
+  void marksTheStepOfAForLoop() {
+    assertEquals(1.0, increment("for (var i = 0; i < 3; i = i + 1) print i;").step);
+    assertEquals(-2.0, increment("for (var i = 9; i > 0; i = i - 2) print i;").step);
+    assertNull(increment("for (var i = 1; i < 9; i = i * 2) print i;").step);
+    assertNull(increment("for (var i = 0; i < 3; i = i + \"1\") print i;").step);
+  }
+
+  @Test
+  void inductionVariableThatStopsBeingANumber() {
+    String source =
+        "for (var i = 0; i < 3; i = i + 1) {\n  print i;\n  if (i == 1) i = \"s\";\n}\n";
+    assertEquals(1.0, increment(source).step);
+    assertEquals("0\n1\nerror Operator must be a number [line 1]\n", both(source));
+
+    String cleared = "for (var i = 4; i > 0; i = i - 1) {\n  print i;\n  i = nil;\n}\n";
+    assertEquals("4\nerror Variable i might not be initialized [line 1]\n", both(cleared));
+  }
+
+  // the increment of the for loop the source starts with, as the optimizer left it
+  private static Expr.Assign increment(String source) {
+    Stmt.Block block = (Stmt.Block) optimize(source).get(0);
+    Stmt.While loop = (Stmt.While) block.statements.get(1);
+    List<Stmt> body = ((Stmt.Block) loop.body).statements;
+    return (Expr.Assign) ((Stmt.Expression) body.get(body.size() - 1)).expression;
+  }
+
+  private static List<Stmt> optimize(String source) {
+    return new LoopOptimizer().optimize(parse(source));
+  }
+
+  // what the program shows as parsed, after checking it shows the same loop optimized, run by both
+  // interpreters
+  private static String both(String source) {
+    StringBuilder expected = new StringBuilder();
+    List<Stmt> parsed = new Resolver().resolve(parse(source));
+    new Interpreter(sink(expected), reporter(expected)).interpret(parsed);
+
+    List<Stmt> optimized = new Resolver().resolve(optimize(source));
+    StringBuilder actual = new StringBuilder();
+    new Interpreter(sink(actual), reporter(actual)).interpret(optimized);
+    assertEquals(expected.toString(), actual.toString());
+    StringBuilder specialized = new StringBuilder();
+    new SpecializingInterpreter(sink(specialized), reporter(specialized)).interpret(optimized);
+    assertEquals(expected.toString(), specialized.toString());
+    return expected.toString();
+  }
+
+  private static List<Stmt> parse(String source) {
+    return new Parser(new Scanner(source).scanTokens()).parse();
+  }
+
+  private static OutputSink sink(StringBuilder text) {
+    return new OutputSink() {
+      @Override
+      public void println(String line) {
+        text.append(line).append('\n');
+      }
+
+      @Override
+      public void flush() {}
+    };
+  }
+
+  private static ErrorReporter reporter(StringBuilder text) {
+    return diagnostic -> text.append("error ").append(diagnostic).append('\n');
+  }
+}
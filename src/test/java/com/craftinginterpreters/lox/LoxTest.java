@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Test;
+
+class LoxTest {
+  private static final String STDIN = "/dev/stdin";
+
+  @Test
+  void runsAScriptFromAPipe() throws Exception {
+    assumeTrue(Files.exists(Paths.get(STDIN)));
+    assertEquals("3\nab\nexit 0", piped("print 1 + 2;\nprint \"a\" + \"b\";\n"));
+  }
+
+  @Test
+  void reportsErrorsOfAScriptFromAPipe() throws Exception {
+    assumeTrue(Files.exists(Paths.get(STDIN)));
+    assertEquals("1\nexit 70", piped("print 1;\nprint x;\n"));
+    assertEquals("exit 65", piped("print (;\n"));
+  }
+
+  @Test
+  void everyScannerReadsAPipe() throws Exception {
+    assumeTrue(Files.exists(Paths.get(STDIN)));
+    for (String flag : new String[] {"--scanner=compact", "--scanner=parallel", "--lazy", "--vm"}) {
+      assertEquals("1\nexit 0", piped("print 1;\n", flag), flag);
+    }
+  }
+
+  // what the script printed and the status, with the script written to the process's stdin
+  private static String piped(String source, String... flags)
+      throws IOException, InterruptedException {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    ProcessBuilder builder =
+        new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Lox.class.getName());
+    for (String flag : flags) builder.command().add(flag);
+    builder.command().add(STDIN);
+    Process process = builder.redirectError(ProcessBuilder.Redirect.DISCARD).start();
+    try (OutputStream in = process.getOutputStream()) {
+      in.write(source.getBytes(StandardCharsets.UTF_8));
+    }
+    String out = read(process.getInputStream());
+    return out + "exit " + process.waitFor();
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    in.transferTo(bytes);
+    return bytes.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+  }
+}
@@ -0,0 +1,121 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ModuleLoaderTest {
+  @TempDir Path directory;
+
+  @Test
+  void modulesRunWhereTheyAreImported() throws IOException {
+    write("a.lox", "print \"a\";\n");
+    write("b.lox", "print \"b1\";\nimport \"lib/c.lox\";\nprint \"b2\";\n");
+    write("lib/c.lox", "print \"c\";\n");
+    String source = "import \"b.lox\";\nimport \"a.lox\";\nprint \"main\";\n";
+    assertEquals("b1\nc\nb2\na\nmain\n", run(source));
+  }
+
+  @Test
+  void moduleRunsOnceHoweverOftenItIsImported() throws IOException {
+    write("a.lox", "print \"a\";\nvar a = 1;\n");
+    write("b.lox", "import \"a.lox\";\nprint \"b\";\n");
+    String source =
+        "import \"a.lox\";\n"
+            + "for (var i = 0; i < 3; i = i + 1) import \"a.lox\";\n"
+            + "import \"b.lox\";\n"
+            + "print a;\n";
+    assertEquals("a\nb\n1\n", run(source));
+  }
+
+  @Test
+  void cycleRunsEachModuleOnce() throws IOException {
+    write("a.lox", "print \"a1\";\nimport \"b.lox\";\nprint \"a2\";\n");
+    write("b.lox", "print \"b1\";\nimport \"a.lox\";\nprint \"b2\";\n");
+    assertEquals("a1\nb1\nb2\na2\n", run("import \"a.lox\";\n"));
+  }
+
+  @Test
+  void unchangedModuleComesFromTheCache() throws IOException {
+    write("a.lox", "print 1;\n");
+    Program first = parse("import \"a.lox\";\n");
+    Program second = parse("import \"a.lox\";\n");
+    assertSame(module(first).statements, module(second).statements);
+  }
+
+  @Test
+  void changedModuleIsParsedAgain() throws IOException {
+    write("a.lox", "print 1;\n");
+    assertEquals("1\n", run("import \"a.lox\";\n"));
+    // the same length, and likely the same modification time
+    write("a.lox", "print 2;\n");
+    assertEquals("2\n", run("import \"a.lox\";\n"));
+  }
+
+  @Test
+  void moduleWithErrorsIsReadAgain() throws IOException {
+    write("a.lox", "print ;\n");
+    Session session = new Session(sink(new StringBuilder()));
+    assertNull(session.parse("import \"a.lox\";\n", directory));
+    assertTrue(session.errors().contains("a.lox"), session.errors());
+    write("a.lox", "print 3;\n");
+    assertEquals("3\n", run("import \"a.lox\";\n"));
+  }
+
+  @Test
+  void missingModuleIsReported() {
+    Session session = new Session(sink(new StringBuilder()));
+    assertNull(session.parse("import \"missing.lox\";\n", directory));
+    assertEquals(65, session.status());
+    assertTrue(session.errors().contains("Can not read the module"), session.errors());
+  }
+
+  // what a fresh session prints running source, with imports relative to the temporary directory
+  private String run(String source) {
+    StringBuilder out = new StringBuilder();
+    Session session = new Session(sink(out));
+    Program program = session.parse(source, directory);
+    assertNotNull(program, session.errors());
+    assertEquals(0, session.run(program), session.errors());
+    return out.toString();
+  }
+
+  private Program parse(String source) {
+    Session session = new Session(sink(new StringBuilder()));
+    Program program = session.parse(source, directory);
+    assertNotNull(program, session.errors());
+    return program;
+  }
+
+  // the one module the program imports
+  private static ModuleLoader.Module module(Program program) {
+    return program.modules.values().iterator().next();
+  }
+
+  private void write(String name, String source) throws IOException {
+    Path file = directory.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static OutputSink sink(StringBuilder text) {
+    return new OutputSink() {
+      @Override
+      public void println(String line) {
+        text.append(line).append('\n');
+      }
+
+      @Override
+      public void flush() {}
+    };
+  }
+}
@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class NumberFormatterTest {
+  private static final boolean SHORTEST = Runtime.version().feature() >= 19;
+
+  @Test
+  void printsWhatDoubleToStringGivesOnThisJdk() {
+    assertEquals(SHORTEST ? "1.0E23" : "9.999999999999999E22", lox(1e23));
+    assertEquals(SHORTEST ? "3.1E22" : "3.1000000000000002E22", lox(31000000000000000000000.0));
+  }
+
+  @Test
+  void integralValues() {
+    assertEquals("0", lox(0.0));
+    assertEquals("-0", lox(-0.0));
+    assertEquals("9999999", lox(9999999));
+    assertEquals("1.0E7", lox(1e7));
+    assertEquals("-42", lox(-42));
+  }
+
+  @Test
+  void matchesDoubleToStringEverywhere() {
+    Random random = new Random(7);
+    for (int i = 0; i < 200_000; i++) {
+      double value = Double.longBitsToDouble(random.nextLong());
+      assertEquals(expected(value), lox(value), () -> Double.toString(value));
+    }
+    for (int i = 0; i < 200_000; i++) {
+      double value = random.nextInt(1_000_000) / Math.pow(10, random.nextInt(30) - 15);
+      assertEquals(expected(value), lox(value), () -> Double.toString(value));
+    }
+  }
+
+  // what Interpreter.stringify showed before NumberFormatter
+  private static String expected(double value) {
+    String text = Double.toString(value);
+    return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+  }
+
+  // every way in, they must agree
+  private static String lox(double value) {
+    String text = NumberFormatter.toString(value);
+    assertEquals(text, NumberFormatter.append(new StringBuilder(), value).toString());
+    return text;
+  }
+}
@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class OptimizerTest {
+  @Test
+  void foldsOperatorsOnLiterals() {
+    assertEquals("7.0", printed("print 1 + 2 * 3;"));
+    assertEquals("ab", printed("print \"a\" + \"b\";"));
+    assertEquals("true", printed("print 1 + 1 == 2;"));
+    assertEquals("false", printed("print !(1 <= 2);"));
+    assertEquals("-4.0", printed("print -(2 * 2);"));
+    assertEquals("x", printed("print nil or \"x\";"));
+    assertEquals("false", printed("print 1 and false;"));
+  }
+
+  @Test
+  void divisionByZeroIsLeftToFailAtRuntime() {
+    assertEquals("(/ 1.0 0.0)", printed("print 1 / 0;"));
+    assertEquals("(+ (/ 1.0 0.0) 2.0)", printed("print 1 / 0 + 2;"));
+    assertEquals("(/ 3.0 0.0)", printed("print (1 + 2) / (1 - 1);"));
+    String source = "print 1;\nprint 2 + 1 / 0;\nprint 3;\n";
+    assertEquals("1\nerror Division by zero not allowed [line 2]\n", both(source));
+  }
+
+  @Test
+  void mixedTypesAreLeftToFailAtRuntime() {
+    assertEquals("(- 1.0 a)", printed("print 1 - \"a\";"));
+    assertEquals("(< 1.0 true)", printed("print 1 < true;"));
+    assertEquals("(* nil 2.0)", printed("print nil * (1 + 1);"));
+    assertEquals("(- a)", printed("print -\"a\";"));
+    // == only takes numbers in this lox
+    assertEquals("(== true true)", printed("print (1 < 2) == !nil;"));
+    assertEquals("error Operator must be a number [line 1]\n", both("print 1 < true;\n"));
+    assertEquals("1\nerror Operator must be a number [line 2]\n", both("print 1;\n1 - \"a\";\n"));
+  }
+
+  @Test
+  void dropsWhatAConstantConditionNeverRuns() {
+    assertEquals("2.0", printed("if (false) print 1; else print 2;"));
+    assertTrue(optimize("if (nil) print 1;").isEmpty());
+    assertTrue(optimize("while (false) print 1;").isEmpty());
+    assertTrue(optimize("{ 1 + 2; \"a\"; }").isEmpty());
+  }
+
+  @Test
+  void bodyOfALoopThatRunsIsKeptEvenWhenEmpty() {
+    String source = "var i = 0;\nwhile ((i = i + 1) < 3) { 1; }\nprint i;\n";
+    Stmt.While loop = (Stmt.While) optimize(source).get(1);
+    assertTrue(((Stmt.Block) loop.body).statements.isEmpty());
+    assertEquals("3\n", both(source));
+  }
+
+  // the expression of the one print statement the source optimizes to
+  private static String printed(String source) {
+    List<Stmt> statements = optimize(source);
+    assertEquals(1, statements.size());
+    return new AstPrinter().print(((Stmt.Print) statements.get(0)).expression);
+  }
+
+  private static List<Stmt> optimize(String source) {
+    return new Optimizer().optimize(parse(source));
+  }
+
+  // what the program shows as parsed, after checking it shows the same optimized
+  private static String both(String source) {
+    StringBuilder expected = new StringBuilder();
+    List<Stmt> parsed = new Resolver().resolve(parse(source));
+    new Interpreter(sink(expected), reporter(expected)).interpret(parsed);
+
+    StringBuilder actual = new StringBuilder();
+    List<Stmt> optimized = new Resolver().resolve(optimize(source));
+    new Interpreter(sink(actual), reporter(actual)).interpret(optimized);
+    assertEquals(expected.toString(), actual.toString());
+    return expected.toString();
+  }
+
+  private static List<Stmt> parse(String source) {
+    return new Parser(new Scanner(source).scanTokens()).parse();
+  }
+
+  private static OutputSink sink(StringBuilder text) {
+    return new OutputSink() {
+      @Override
+      public void println(String line) {
+        text.append(line).append('\n');
+      }
+
+      @Override
+      public void flush() {}
+    };
+  }
+
+  private static ErrorReporter reporter(StringBuilder text) {
+    return diagnostic -> text.append("error ").append(diagnostic).append('\n');
+  }
+}
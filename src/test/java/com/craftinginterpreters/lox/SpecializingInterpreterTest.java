@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class SpecializingInterpreterTest {
+  @Test
+  void numberNodeSeesAString() {
+    String source =
+        "var x = 1;\n"
+            + "for (var i = 0; i < 3; i = i + 1) {\n"
+            + "  print x + 1;\n"
+            + "  x = \"s\";\n"
+            + "}\n";
+    assertEquals("2\ns1\ns1\n", both(source));
+  }
+
+  @Test
+  void stringNodeSeesNumbers() {
+    String source =
+        "var x = \"a\";\n"
+            + "for (var i = 0; i < 3; i = i + 1) {\n"
+            + "  print x + 2;\n"
+            + "  x = i;\n"
+            + "}\n";
+    assertEquals("a2\n2\n3\n", both(source));
+  }
+
+  @Test
+  void divisionByZeroAfterSpecializing() {
+    String source =
+        "var d = 2;\n"
+            + "for (var i = 0; i < 3; i = i + 1) {\n"
+            + "  print 1 / d;\n"
+            + "  d = 0;\n"
+            + "}\n";
+    assertEquals("0.5\nerror Division by zero not allowed [line 3]\n", both(source));
+  }
+
+  @Test
+  void comparisonSeesStrings() {
+    String source =
+        "var a = 1;\n"
+            + "while (a < 3) {\n"
+            + "  print a;\n"
+            + "  a = \"s\";\n"
+            + "}\n";
+    assertEquals("1\nerror Operator must be a number [line 2]\n", both(source));
+  }
+
+  @Test
+  void equalitySeesMixedTypes() {
+    String source =
+        "var a = 1;\n"
+            + "for (var i = 0; i < 3; i = i + 1) {\n"
+            + "  print a == 1;\n"
+            + "  print !a;\n"
+            + "  a = \"s\";\n"
+            + "}\n";
+    assertEquals("true\nfalse\nerror Operator must be a number [line 3]\n", both(source));
+  }
+
+  // what the default interpreter shows, after checking both specializing runs show it too: the
+  // first specializes the nodes, the second starts from what the first left in them
+  private static String both(String source) {
+    List<Stmt> statements = prepare(source);
+    StringBuilder expected = new StringBuilder();
+    new Interpreter(sink(expected), reporter(expected)).interpret(statements);
+    for (int i = 0; i < 2; i++) {
+      StringBuilder actual = new StringBuilder();
+      new SpecializingInterpreter(sink(actual), reporter(actual)).interpret(statements);
+      assertEquals(expected.toString(), actual.toString(), "run " + i);
+    }
+    return expected.toString();
+  }
+
+  private static List<Stmt> prepare(String source) {
+    List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+    return new Resolver().resolve(statements);
+  }
+
+  private static OutputSink sink(StringBuilder text) {
+    return new OutputSink() {
+      @Override
+      public void println(String line) {
+        text.append(line).append('\n');
+      }
+
+      @Override
+      public void flush() {}
+    };
+  }
+
+  private static ErrorReporter reporter(StringBuilder text) {
+    return diagnostic -> text.append("error ").append(diagnostic).append('\n');
+  }
+}
@@ -0,0 +1,173 @@
+package com.craftinginterpreters.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VMTest {
+  @TempDir Path directory;
+
+  @Test
+  void manyGlobalsAndConstants() throws Exception {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < 40000; i++) {
+      source.append("var ").append(name(i)).append(" = ").append(i).append(";\n");
+    }
+    source.append("print ").append(name(39999)).append(";\n");
+    Result result = lox(source.toString(), "--vm");
+    assertEquals("39999\n", result.out);
+    assertEquals("", result.err);
+    assertEquals(0, result.status);
+  }
+
+  @Test
+  void tooManyArgumentsFailLikeTheInterpreter() throws Exception {
+    StringBuilder source = new StringBuilder("print clock(1");
+    for (int i = 1; i < 256; i++) source.append(", 1");
+    source.append(") > 0;\n");
+    Result interpreted = lox(source.toString());
+    assertEquals("Expected 0 number of arguments. Got 256 [line 1]\n", interpreted.err);
+    assertEquals(70, interpreted.status);
+    Result compiled = lox(source.toString(), "--vm");
+    assertEquals(interpreted.err, compiled.err);
+    assertEquals(interpreted.status, compiled.status);
+  }
+
+  @Test
+  void arithmetic() throws Exception {
+    assertEquals(
+        "3\n-3\n2.5\n0.30000000000000004\n-0\n",
+        same("print 1 + 2 * 3 - 4;\nprint -(3);\nprint 10 / 4;\nprint 0.1 + 0.2;\nprint -0;\n"));
+    same("print 1 / 0;\n");
+    same("print 1 - nil;\n");
+    same("print true * 2;\n");
+  }
+
+  @Test
+  void stringConcatenation() throws Exception {
+    String source = "print \"a\" + \"b\";\nprint \"a\" + 1;\nprint 1 + \"a\";\n";
+    assertEquals("ab\na1\n1a\n", same(source));
+    same("print \"a\" + nil;\n");
+    same("print true + false;\n");
+  }
+
+  @Test
+  void equalityOnMixedTypes() throws Exception {
+    same("print 1 == 1;\nprint 1 != 2;\nprint \"a\" == 1;\n");
+    same("print \"a\" == \"a\";\n");
+    same("print nil == nil;\n");
+    same("var a = 1;\n{ var b = \"1\"; print a != b; }\n");
+  }
+
+  @Test
+  void undefinedAndUninitializedVariables() throws Exception {
+    same("print x;\n");
+    same("x = 1;\n");
+    same("var y;\nprint y;\n");
+    same("{\n  var z;\n  print z;\n}\n");
+    same("var w;\nw = 2;\nprint w;\n");
+  }
+
+  @Test
+  void comparisonFusedWithItsJump() throws Exception {
+    String source =
+        "var n = 0;\n"
+            + "while (n < 3) n = n + 1;\n"
+            + "if (n >= 3) print \"ge\"; else print \"lt\";\n"
+            + "if (n > 3) print \"gt\"; else print \"le\";\n"
+            + "if (n <= 2) print \"le\";\n"
+            + "print n < 4;\n";
+    assertEquals("ge\nle\ntrue\n", same(source));
+    same("if (\"a\" < 1) print 1;\n");
+    same("var s = \"s\";\nwhile (s > 0) print s;\n");
+  }
+
+  @Test
+  void incrementedLocal() throws Exception {
+    String source =
+        "{\n"
+            + "  var sum = 0;\n"
+            + "  for (var i = 0; i < 10; i = i + 2) sum = sum + i;\n"
+            + "  for (var j = 5; j > 0; j = j - 1) sum = sum + j;\n"
+            + "  print sum;\n"
+            + "}\n";
+    assertEquals("35\n", same(source));
+    // the local stops being a number half way, the increment falls back to the assignment
+    same("for (var i = 0; i < 3; i = i + 1) {\n  print i;\n  if (i == 1) i = \"s\";\n}\n");
+    same("for (var i = 0; i < 3; i = i + 1) {\n  print i;\n  i = nil;\n}\n");
+  }
+
+  @Test
+  void longJumpsAndOperands() throws Exception {
+    StringBuilder source = new StringBuilder("var n = 0;\nvar x = 0;\n");
+    // a loop body too long for two byte jumps
+    source.append("while (n < 2) {\n  n = n + 1;\n  if (n > 5) print n; else {\n");
+    for (int i = 0; i < 20000; i++) source.append("    x = x + 1;\n");
+    source.append("  }\n}\nprint x;\n");
+    // and more constants, globals and locals than two bytes count
+    source.append("{\n");
+    for (int i = 0; i < 70000; i++) {
+      source.append("var ").append(name(i)).append(" = ").append(i).append(";\n");
+    }
+    source.append("print ").append(name(69999)).append(";\n}\n");
+    assertEquals("40000\n69999\n", same(source.toString()));
+  }
+
+  // what the interpreter printed, after checking the VM printed, reported and exited the same way
+  private String same(String source) throws IOException, InterruptedException {
+    Result interpreted = lox(source);
+    Result compiled = lox(source, "--vm");
+    assertEquals(interpreted.out, compiled.out, "out");
+    assertEquals(interpreted.err, compiled.err, "err");
+    assertEquals(interpreted.status, compiled.status, "status");
+    return interpreted.out;
+  }
+
+  // identifiers are letters only
+  private static String name(int i) {
+    StringBuilder name = new StringBuilder();
+    do {
+      name.insert(0, (char) ('a' + i % 26));
+      i /= 26;
+    } while (i > 0);
+    return "q" + name;
+  }
+
+  private static class Result {
+    final String out;
+    final String err;
+    final int status;
+
+    Result(String out, String err, int status) {
+      this.out = out;
+      this.err = err;
+      this.status = status;
+    }
+  }
+
+  // a fresh JVM per script, the command line keeps its engine in static state
+  private Result lox(String source, String... flags) throws IOException, InterruptedException {
+    Path script = Files.createTempFile(directory, "script", ".lox");
+    Files.write(script, source.getBytes(StandardCharsets.UTF_8));
+    Path out = directory.resolve(script.getFileName() + ".out");
+    Path err = directory.resolve(script.getFileName() + ".err");
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    ProcessBuilder builder =
+        new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Lox.class.getName());
+    for (String flag : flags) builder.command().add(flag);
+    builder.command().add(script.toString());
+    Process process = builder.redirectOutput(out.toFile()).redirectError(err.toFile()).start();
+    int status = process.waitFor();
+    return new Result(read(out), read(err), status);
+  }
+
+  private static String read(Path path) throws IOException {
+    return new String(Files.readAllBytes(path), StandardCharsets.UTF_8).replace("\r\n", "\n");
+  }
+}